@@ -0,0 +1,98 @@
+package com.jit.ecr.benchmarks;
+
+import com.jit.ecr.BlobPipeline;
+import com.jit.ecr.BlobStore;
+import com.jit.ecr.Digests;
+import com.jit.ecr.PullMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Digest verification throughput and the cost of landing a blob in the store, through the
+ * one-shot {@link BlobStore#write}, the resumable partial-file path, and the staged
+ * {@link BlobPipeline} that downloads use.
+ * Scores are per blob; divide the blob size by the score for MB/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlobStoreBenchmark {
+    @Param({"1048576", "16777216"})
+    public int blobSize;
+
+    private byte[] content;
+    private String digest;
+    private Path root;
+    private BlobStore store;
+    private BlobPipeline pipeline;
+
+    @Setup
+    public void setUp() throws IOException {
+        content = new byte[blobSize];
+        new Random(7).nextBytes(content);
+        digest = Digests.sha256(content);
+        root = Files.createTempDirectory("blob-benchmark");
+        store = new BlobStore(root);
+        pipeline = new BlobPipeline(new PullMetrics());
+    }
+
+    @Setup(Level.Invocation)
+    public void removeBlob() throws IOException {
+        Files.deleteIfExists(store.path(digest));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        PullHarness.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public byte[] sha256() {
+        MessageDigest sha256 = Digests.newSha256();
+        sha256.update(content);
+        return sha256.digest();
+    }
+
+    @Benchmark
+    public Path write() throws IOException {
+        return store.write(digest, new ByteArrayInputStream(content));
+    }
+
+    @Benchmark
+    public Path writeResumable() throws IOException {
+        try (BlobStore.PartialBlob partial = store.openPartial(digest)) {
+            partial.append(new ByteArrayInputStream(content));
+            return partial.commit();
+        }
+    }
+
+    @Benchmark
+    public Path writePipelined() throws IOException {
+        try (BlobStore.PartialBlob partial = store.openPartial(digest)) {
+            pipeline.append(partial, new ByteArrayInputStream(content));
+            return partial.commit();
+        }
+    }
+}
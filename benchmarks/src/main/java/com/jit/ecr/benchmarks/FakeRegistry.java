@@ -0,0 +1,377 @@
+package com.jit.ecr.benchmarks;
+
+import com.jit.ecr.Digests;
+import com.jit.ecr.Json;
+import com.jit.ecr.Manifest;
+import com.jit.ecr.VirtualThreads;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for ECR: a registry v2 endpoint serving synthetic images plus the two ECR
+ * API calls the puller makes ({@code GetAuthorizationToken} and {@code BatchGetImage}), so the
+ * whole pull path can be measured offline.
+ *
+ * <p>Every image has its own layers plus a configurable number of base layers shared with all
+ * other images. Each request waits {@code latencyMillis} before answering and each response body
+ * is paced to {@code bytesPerSecond} per connection. A {@code stallRate} fraction of blob
+ * responses slows to a trickle halfway through, like a stuck connection to storage.
+ */
+public class FakeRegistry implements AutoCloseable {
+    public static final String REGISTRY = "123456789012.dkr.ecr.us-east-1.amazonaws.com";
+    public static final String REPOSITORY = "jit-ide";
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final long STALLED_BYTES_PER_SECOND = 4 * 1024;
+
+    private final HttpServer server;
+    // On virtual threads where available, so the server's threads do not show in the harness' thread counts
+    private final ExecutorService executor = VirtualThreads.isSupported()
+        ? VirtualThreads.newPerTaskExecutor() : Executors.newCachedThreadPool();
+    private final Map<String, byte[]> blobs = new HashMap<>();
+    private final Map<String, String> tags = new LinkedHashMap<>();
+    private final Map<String, byte[]> manifests = new HashMap<>();
+    private final long latencyMillis;
+    private final long bytesPerSecond;
+    private final double stallRate;
+    private final Random stalls = new Random(7);
+    private final AtomicLong blobRequests = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    /**
+     * Shape of the synthetic images.
+     */
+    public static final class Config {
+        int images = 8;
+        int layersPerImage = 4;
+        int sharedLayers = 2;
+        int layerSize = 4 * 1024 * 1024;
+        long latencyMillis = 20;
+        long bytesPerSecond = 0;
+        double stallRate = 0;
+
+        public Config images(int images) {
+            this.images = images;
+            return this;
+        }
+
+        public Config layersPerImage(int layersPerImage) {
+            this.layersPerImage = layersPerImage;
+            return this;
+        }
+
+        public Config sharedLayers(int sharedLayers) {
+            this.sharedLayers = sharedLayers;
+            return this;
+        }
+
+        public Config layerSize(int layerSize) {
+            this.layerSize = layerSize;
+            return this;
+        }
+
+        public Config latencyMillis(long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+            return this;
+        }
+
+        /**
+         * Per-connection bandwidth; 0 means unthrottled.
+         */
+        public Config bytesPerSecond(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Fraction of blob responses, 0 to 1, that stall halfway through.
+         */
+        public Config stallRate(double stallRate) {
+            this.stallRate = stallRate;
+            return this;
+        }
+    }
+
+    public FakeRegistry(Config config) throws IOException {
+        this.latencyMillis = config.latencyMillis;
+        this.bytesPerSecond = config.bytesPerSecond;
+        this.stallRate = config.stallRate;
+
+        Random random = new Random(42);
+        List<String> shared = new ArrayList<>();
+        for (int i = 0; i < config.sharedLayers; i++) {
+            shared.add(addBlob(randomBytes(random, config.layerSize)));
+        }
+        for (int image = 0; image < config.images; image++) {
+            List<String> layers = new ArrayList<>(shared);
+            for (int i = shared.size(); i < config.layersPerImage; i++) {
+                layers.add(addBlob(randomBytes(random, config.layerSize)));
+            }
+            addImage("tool-" + image, layers);
+        }
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/v2/", this::handleRegistry);
+        server.createContext("/", this::handleEcrApi);
+        server.start();
+    }
+
+    private static byte[] randomBytes(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private String addBlob(byte[] content) {
+        String digest = Digests.sha256(content);
+        blobs.put(digest, content);
+        return digest;
+    }
+
+    private void addImage(String tag, List<String> layers) {
+        Map<String, Object> configJson = new LinkedHashMap<>();
+        configJson.put("architecture", "amd64");
+        configJson.put("os", "linux");
+        configJson.put("tag", tag);
+        byte[] configBytes = Json.writeBytes(configJson);
+        String configDigest = addBlob(configBytes);
+
+        List<Object> layerDescriptors = new ArrayList<>();
+        for (String layer : layers) {
+            layerDescriptors.add(descriptor("application/vnd.oci.image.layer.v1.tar+gzip", layer, blobs.get(layer).length));
+        }
+        Map<String, Object> manifest = new LinkedHashMap<>();
+        manifest.put("schemaVersion", 2L);
+        manifest.put("mediaType", Manifest.OCI_MANIFEST);
+        manifest.put("config", descriptor("application/vnd.oci.image.config.v1+json", configDigest, configBytes.length));
+        manifest.put("layers", layerDescriptors);
+        byte[] raw = Json.writeBytes(manifest);
+        String digest = Digests.sha256(raw);
+        manifests.put(digest, raw);
+        tags.put(tag, digest);
+    }
+
+    private static Map<String, Object> descriptor(String mediaType, String digest, long size) {
+        Map<String, Object> descriptor = new LinkedHashMap<>();
+        descriptor.put("mediaType", mediaType);
+        descriptor.put("digest", digest);
+        descriptor.put("size", size);
+        return descriptor;
+    }
+
+    /**
+     * Where the puller should send registry and ECR API requests.
+     */
+    public URI getEndpoint() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    /**
+     * Image name to URI, using the ECR host name so ECR-specific code paths apply. The first image
+     * is listed a second time pinned by digest alone, as a catalog entry without a tag would be.
+     */
+    public Map<String, String> getImageUris() {
+        Map<String, String> uris = new LinkedHashMap<>();
+        for (String tag : tags.keySet()) {
+            uris.put(tag, REGISTRY + "/" + REPOSITORY + ":" + tag);
+        }
+        tags.entrySet().stream().findFirst().ifPresent(first ->
+            uris.put(first.getKey() + "-pinned", REGISTRY + "/" + REPOSITORY + "@" + first.getValue()));
+        return uris;
+    }
+
+    /**
+     * Compressed bytes of all unique blobs, i.e. what a cold pull of every image transfers.
+     */
+    public long getUniqueBytes() {
+        long total = 0;
+        for (byte[] blob : blobs.values()) {
+            total += blob.length;
+        }
+        return total;
+    }
+
+    public long getBlobRequests() {
+        return blobRequests.get();
+    }
+
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    private void handleRegistry(HttpExchange exchange) throws IOException {
+        try {
+            delay();
+            String path = exchange.getRequestURI().getPath();
+            String reference = path.substring(path.lastIndexOf('/') + 1);
+            if (path.equals("/v2/")) {
+                send(exchange, 200, "application/json", "{}".getBytes(StandardCharsets.UTF_8));
+            } else if (path.contains("/manifests/")) {
+                String digest = reference.startsWith("sha256:") ? reference : tags.get(reference);
+                byte[] manifest = digest != null ? manifests.get(digest) : null;
+                if (manifest == null) {
+                    send(exchange, 404, "application/json", "{}".getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                exchange.getResponseHeaders().add("Docker-Content-Digest", digest);
+                send(exchange, 200, Manifest.OCI_MANIFEST, manifest);
+            } else if (path.contains("/blobs/")) {
+                blobRequests.incrementAndGet();
+                sendBlob(exchange, blobs.get(reference));
+            } else {
+                send(exchange, 404, "application/json", "{}".getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void sendBlob(HttpExchange exchange, byte[] blob) throws IOException, InterruptedException {
+        if (blob == null) {
+            send(exchange, 404, "application/json", "{}".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        int start = 0;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=") && range.endsWith("-")) {
+            start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (blob.length - 1) + "/" + blob.length);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(range != null ? 206 : 200, blob.length - start);
+
+        boolean stall;
+        synchronized (stalls) {
+            stall = stalls.nextDouble() < stallRate;
+        }
+        int stallAt = start + (blob.length - start) / 2;
+        long began = System.nanoTime();
+        long sent = 0;
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int offset = start; offset < blob.length; offset += CHUNK_SIZE) {
+                int length = Math.min(CHUNK_SIZE, blob.length - offset);
+                out.write(blob, offset, length);
+                sent += length;
+                bytesServed.addAndGet(length);
+                if (stall && offset >= stallAt) {
+                    out.flush();
+                    TimeUnit.MILLISECONDS.sleep(length * 1000L / STALLED_BYTES_PER_SECOND);
+                } else if (bytesPerSecond > 0) {
+                    long due = began + sent * 1_000_000_000L / bytesPerSecond;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The ECR JSON API, dispatched on {@code X-Amz-Target}.
+     */
+    private void handleEcrApi(HttpExchange exchange) throws IOException {
+        try {
+            delay();
+            String target = exchange.getRequestHeaders().getFirst("X-Amz-Target");
+            Map<String, Object> request = Json.parseObject(exchange.getRequestBody().readAllBytes());
+            Map<String, Object> response;
+            if (target != null && target.endsWith(".GetAuthorizationToken")) {
+                response = authorizationToken();
+            } else if (target != null && target.endsWith(".BatchGetImage")) {
+                response = batchGetImage(request);
+            } else {
+                send(exchange, 400, "application/x-amz-json-1.1",
+                    ("{\"__type\":\"UnknownOperationException\",\"message\":\"" + target + "\"}").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            send(exchange, 200, "application/x-amz-json-1.1", Json.writeBytes(response));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Map<String, Object> authorizationToken() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("authorizationToken", Base64.getEncoder().encodeToString("AWS:benchmark".getBytes(StandardCharsets.UTF_8)));
+        data.put("expiresAt", Instant.now().plusSeconds(12 * 3600).getEpochSecond());
+        data.put("proxyEndpoint", getEndpoint().toString());
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("authorizationData", List.of(data));
+        return response;
+    }
+
+    private Map<String, Object> batchGetImage(Map<String, Object> request) {
+        List<Object> images = new ArrayList<>();
+        List<Object> failures = new ArrayList<>();
+        for (Object id : Json.array(request.get("imageIds"))) {
+            String tag = Json.string(Json.object(id), "imageTag");
+            String digest = tags.get(tag);
+            Map<String, Object> imageId = new LinkedHashMap<>();
+            imageId.put("imageTag", tag);
+            if (digest == null) {
+                Map<String, Object> failure = new LinkedHashMap<>();
+                failure.put("imageId", imageId);
+                failure.put("failureCode", "ImageTagDoesNotMatchDigest");
+                failure.put("failureReason", "Requested image not found");
+                failures.add(failure);
+                continue;
+            }
+            imageId.put("imageDigest", digest);
+            Map<String, Object> image = new LinkedHashMap<>();
+            image.put("registryId", request.get("registryId"));
+            image.put("repositoryName", request.get("repositoryName"));
+            image.put("imageId", imageId);
+            image.put("imageManifest", new String(manifests.get(digest), StandardCharsets.UTF_8));
+            image.put("imageManifestMediaType", Manifest.OCI_MANIFEST);
+            images.add(image);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("images", images);
+        response.put("failures", failures);
+        return response;
+    }
+
+    private void delay() throws InterruptedException {
+        if (latencyMillis > 0) {
+            TimeUnit.MILLISECONDS.sleep(latencyMillis);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
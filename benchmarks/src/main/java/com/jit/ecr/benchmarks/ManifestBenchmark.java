@@ -0,0 +1,93 @@
+package com.jit.ecr.benchmarks;
+
+import com.jit.ecr.Json;
+import com.jit.ecr.Manifest;
+import com.jit.ecr.Platform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of image manifests and multi-arch indexes, including digest computation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ManifestBenchmark {
+    @Param({"5", "50"})
+    public int layers;
+
+    private byte[] manifest;
+    private byte[] index;
+    private final Platform platform = Platform.parse("linux/amd64");
+
+    @Setup
+    public void setUp() {
+        List<Object> layerDescriptors = new ArrayList<>();
+        for (int i = 0; i < layers; i++) {
+            layerDescriptors.add(descriptor("application/vnd.oci.image.layer.v1.tar+gzip", i, 30_000_000L + i));
+        }
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("schemaVersion", 2L);
+        json.put("mediaType", Manifest.OCI_MANIFEST);
+        json.put("config", descriptor("application/vnd.oci.image.config.v1+json", -1, 7_000L));
+        json.put("layers", layerDescriptors);
+        manifest = Json.writeBytes(json);
+
+        List<Object> manifests = new ArrayList<>();
+        String[][] platforms = {{"linux", "amd64"}, {"linux", "arm64"}, {"linux", "arm"}, {"windows", "amd64"}};
+        for (int i = 0; i < platforms.length; i++) {
+            Map<String, Object> entry = descriptor(Manifest.OCI_MANIFEST, i, 1_500L);
+            Map<String, Object> entryPlatform = new LinkedHashMap<>();
+            entryPlatform.put("os", platforms[i][0]);
+            entryPlatform.put("architecture", platforms[i][1]);
+            entry.put("platform", entryPlatform);
+            manifests.add(entry);
+        }
+        Map<String, Object> indexJson = new LinkedHashMap<>();
+        indexJson.put("schemaVersion", 2L);
+        indexJson.put("mediaType", Manifest.OCI_INDEX);
+        indexJson.put("manifests", manifests);
+        index = Json.writeBytes(indexJson);
+    }
+
+    private static Map<String, Object> descriptor(String mediaType, int seed, long size) {
+        Map<String, Object> descriptor = new LinkedHashMap<>();
+        descriptor.put("mediaType", mediaType);
+        descriptor.put("digest", "sha256:" + String.format("%064x", seed & 0xffffffffL));
+        descriptor.put("size", size);
+        return descriptor;
+    }
+
+    @Benchmark
+    public Manifest parseManifest() {
+        return Manifest.parse(manifest, Manifest.OCI_MANIFEST);
+    }
+
+    @Benchmark
+    public Object selectFromIndex() {
+        return Manifest.parse(index, Manifest.OCI_INDEX).select(platform);
+    }
+
+    @Benchmark
+    public Object parseJsonOnly() {
+        return Json.parse(manifest);
+    }
+}
@@ -0,0 +1,390 @@
+package com.jit.ecr.benchmarks;
+
+import com.jit.ecr.AdaptiveScheduler;
+import com.jit.ecr.BlobStore;
+import com.jit.ecr.ConcurrencyLimits;
+import com.jit.ecr.DockerArchiveWriter;
+import com.jit.ecr.EcrDigestResolver;
+import com.jit.ecr.ImageReference;
+import com.jit.ecr.Json;
+import com.jit.ecr.NativePuller;
+import com.jit.ecr.OciArchiveWriter;
+import com.jit.ecr.OciLayoutWriter;
+import com.jit.ecr.PeerClient;
+import com.jit.ecr.PeerServer;
+import com.jit.ecr.Platform;
+import com.jit.ecr.PullMetrics;
+import com.jit.ecr.PullPlan;
+import com.jit.ecr.PulledImage;
+import com.jit.ecr.RegistryClient;
+import com.jit.ecr.VirtualThreads;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.ecr.EcrClient;
+import software.amazon.awssdk.services.ecr.model.AuthorizationData;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end pull benchmark against {@link FakeRegistry}: authenticates, resolves digests with
+ * BatchGetImage and pulls every image cold with the native engine, once per concurrency level,
+ * then reports images/s and MB/s. Runs entirely offline.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.jit.ecr.benchmarks.PullHarness \
+ *     --images 8 --layers 4 --shared-layers 2 --layer-size 4M --latency 20 --bandwidth 25M \
+ *     --concurrency 1,2,4,8,16,adaptive --runs 3
+ * </pre>
+ *
+ * <p>The table shows the median and the worst run. {@code --stall-rate 0.05} makes that share of
+ * blob responses stall halfway, to check that hedging keeps the worst run near the median.
+ *
+ * <p>After each timed run the pulled images are written as a Docker archive, an OCI archive and
+ * an OCI layout, and the names in them are checked. The first image is also pulled pinned by
+ * digest alone, so the untagged case is covered.
+ *
+ * <p>{@code --threads platform,virtual} runs every concurrency level on both pooled platform
+ * threads and virtual threads (Java 21+). The peak thread column counts the platform threads of
+ * the whole process, the fake registry's included, so compare it between rows.
+ *
+ * <p>With {@code --nodes n} it instead runs peer mode on {@code n} in-process nodes, each with
+ * its own cache and a {@link PeerServer} on localhost: the first node pulls from the registry,
+ * then the others pull at once with every other node as a peer, at the first concurrency level.
+ */
+public class PullHarness {
+    private FakeRegistry.Config config = new FakeRegistry.Config();
+    private List<String> concurrencyLevels = List.of("1", "2", "4", "8", "16", "adaptive");
+    private List<String> threadModes = List.of("platform");
+    private int runs = 3;
+    private int nodes = 1;
+
+    public static void main(String[] args) throws Exception {
+        PullHarness harness = new PullHarness();
+        harness.parse(args);
+        harness.run();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--images":
+                    config.images(Integer.parseInt(value));
+                    break;
+                case "--layers":
+                    config.layersPerImage(Integer.parseInt(value));
+                    break;
+                case "--shared-layers":
+                    config.sharedLayers(Integer.parseInt(value));
+                    break;
+                case "--layer-size":
+                    config.layerSize((int) ConcurrencyLimits.parseBytesPerSecond(value));
+                    break;
+                case "--latency":
+                    config.latencyMillis(Long.parseLong(value));
+                    break;
+                case "--bandwidth":
+                    config.bytesPerSecond(ConcurrencyLimits.parseBytesPerSecond(value));
+                    break;
+                case "--stall-rate":
+                    config.stallRate(Double.parseDouble(value));
+                    break;
+                case "--concurrency":
+                    concurrencyLevels = List.of(value.split(","));
+                    break;
+                case "--threads":
+                    threadModes = List.of(value.split(","));
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(value);
+                    break;
+                case "--nodes":
+                    nodes = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        try (FakeRegistry registry = new FakeRegistry(config);
+             EcrClient ecrClient = EcrClient.builder()
+                 .endpointOverride(registry.getEndpoint())
+                 .region(Region.US_EAST_1)
+                 .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("benchmark", "benchmark")))
+                 .build()) {
+            Map<String, String> imageUris = registry.getImageUris();
+            System.out.printf("%d images, %.1f MB unique, latency %d ms, %s per connection%n", imageUris.size(),
+                registry.getUniqueBytes() / (1024.0 * 1024.0), config.latencyMillis,
+                config.bytesPerSecond > 0 ? (config.bytesPerSecond / (1024 * 1024)) + " MB/s" : "unthrottled");
+            if (nodes > 1) {
+                runPeers(registry, ecrClient, imageUris, limits(concurrencyLevels.get(0), threadModes.get(0)));
+                return;
+            }
+            System.out.printf("%-18s %10s %10s %10s %10s %12s %12s%n", "concurrency", "seconds", "worst", "images/s", "MB/s",
+                "peak limit", "peak threads");
+
+            for (String level : concurrencyLevels) {
+                for (String mode : threadModes) {
+                    List<Result> results = new ArrayList<>();
+                    for (int run = 0; run < runs; run++) {
+                        results.add(pullOnce(registry, ecrClient, imageUris, limits(level, mode)));
+                    }
+                    // Median run, so one warm-up outlier does not skew the table
+                    results.sort(Comparator.comparingDouble(result -> result.seconds));
+                    Result median = results.get(results.size() / 2);
+                    Result worst = results.get(results.size() - 1);
+                    String label = threadModes.size() > 1 || !"platform".equals(mode) ? level + "/" + mode : level;
+                    System.out.printf("%-18s %10.2f %10.2f %10.2f %10.1f %12d %12d%n", label, median.seconds, worst.seconds,
+                        median.images / median.seconds, median.bytes / (1024.0 * 1024.0) / median.seconds, median.peakLimit,
+                        median.peakThreads);
+                }
+            }
+        }
+    }
+
+    private static ConcurrencyLimits limits(String level, String threadMode) {
+        ConcurrencyLimits limits = "adaptive".equals(level)
+            ? ConcurrencyLimits.defaults() : ConcurrencyLimits.fixed(Integer.parseInt(level));
+        if ("virtual".equals(threadMode) && !VirtualThreads.isSupported()) {
+            throw new IllegalStateException("--threads virtual needs Java 21 or newer");
+        }
+        return limits.withVirtualThreads("virtual".equals(threadMode));
+    }
+
+    private static final class Result {
+        private final double seconds;
+        private final int images;
+        private final long bytes;
+        private final int peakLimit;
+        private final int peakThreads;
+        private final List<PulledImage> pulled;
+
+        private Result(double seconds, int images, long bytes, int peakLimit, int peakThreads, List<PulledImage> pulled) {
+            this.seconds = seconds;
+            this.images = images;
+            this.bytes = bytes;
+            this.peakLimit = peakLimit;
+            this.peakThreads = peakThreads;
+            this.pulled = pulled;
+        }
+    }
+
+    private static Result pullOnce(FakeRegistry registry, EcrClient ecrClient, Map<String, String> imageUris,
+            ConcurrencyLimits limits) throws Exception {
+        Path cache = Files.createTempDirectory("pull-harness");
+        try {
+            Result result = pull(registry, ecrClient, imageUris, limits, cache, null, new PullMetrics());
+            checkWriters(result.pulled, new BlobStore(cache), cache);
+            return result;
+        } finally {
+            deleteRecursively(cache);
+        }
+    }
+
+    private static Result pull(FakeRegistry registry, EcrClient ecrClient, Map<String, String> imageUris,
+            ConcurrencyLimits limits, Path cache, PeerClient peers, PullMetrics metrics) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        try (AdaptiveScheduler scheduler = new AdaptiveScheduler(limits)) {
+            long start = System.nanoTime();
+
+            AuthorizationData auth = ecrClient.getAuthorizationToken().authorizationData().get(0);
+            String[] credentials = new String(Base64.getDecoder().decode(auth.authorizationToken()), StandardCharsets.UTF_8).split(":");
+            Map<String, String> digests = new EcrDigestResolver(ecrClient).resolve(new ArrayList<>(imageUris.values()));
+            if (digests.size() != imageUris.size()) {
+                throw new IllegalStateException("Resolved " + digests.size() + " of " + imageUris.size() + " digests");
+            }
+
+            RegistryClient registryClient = new RegistryClient(registry.getEndpoint(), credentials[0], credentials[1]);
+            NativePuller puller = new NativePuller(registryClient, new BlobStore(cache), Platform.parse("linux/amd64"), scheduler,
+                metrics, peers);
+            PullPlan plan = puller.plan(imageUris);
+            List<PulledImage> pulled = puller.execute(plan, image -> { });
+            if (!plan.getFailures().isEmpty()) {
+                throw new IllegalStateException("Pull failed: " + plan.getFailures());
+            }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            return new Result(seconds, pulled.size(), scheduler.getTotalBytes(), scheduler.getPeakLimit(),
+                threads.getPeakThreadCount(), pulled);
+        }
+    }
+
+    /**
+     * Writes the images in every export format and checks their names: Docker only accepts
+     * {@code registry/repository:tag} in RepoTags, and an image pinned by digest alone must load
+     * untagged and carry no ref.name annotation.
+     */
+    private static void checkWriters(List<PulledImage> pulled, BlobStore store, Path cache) throws IOException {
+        Path dockerArchive = cache.resolve("images.tar");
+        try (OutputStream out = Files.newOutputStream(dockerArchive)) {
+            DockerArchiveWriter.write(out, pulled, store);
+        }
+        checkRepoTags(pulled, readTarEntry(dockerArchive, "manifest.json"));
+
+        Path ociArchive = cache.resolve("images.oci.tar");
+        try (OutputStream out = Files.newOutputStream(ociArchive)) {
+            OciArchiveWriter.write(out, pulled, store);
+        }
+        checkRepoTags(pulled, readTarEntry(ociArchive, "manifest.json"));
+        checkRefNames(pulled, readTarEntry(ociArchive, "index.json"));
+
+        Path layout = cache.resolve("oci-layout");
+        OciLayoutWriter.write(layout, pulled, store);
+        checkRefNames(pulled, Files.readAllBytes(layout.resolve("index.json")));
+    }
+
+    private static void checkRepoTags(List<PulledImage> pulled, byte[] manifestJson) {
+        List<Object> entries = Json.array(Json.parse(manifestJson));
+        for (int i = 0; i < pulled.size(); i++) {
+            ImageReference reference = pulled.get(i).getReference();
+            List<Object> expected = reference.getTag() != null
+                ? List.of(reference.getRegistry() + "/" + reference.getRepository() + ":" + reference.getTag()) : List.of();
+            Object repoTags = Json.object(entries.get(i)).get("RepoTags");
+            if (!expected.equals(repoTags)) {
+                throw new IllegalStateException("RepoTags of " + reference + " are " + repoTags + ", expected " + expected);
+            }
+        }
+    }
+
+    private static void checkRefNames(List<PulledImage> pulled, byte[] indexJson) {
+        Map<String, Map<String, Object>> annotations = new HashMap<>();
+        for (Object manifest : Json.array(Json.parseObject(indexJson).get("manifests"))) {
+            Map<String, Object> entry = Json.object(Json.object(manifest).get("annotations"));
+            annotations.put(Json.string(entry, OciLayoutWriter.IMAGE_NAME_ANNOTATION), entry);
+        }
+        for (PulledImage image : pulled) {
+            ImageReference reference = image.getReference();
+            Map<String, Object> entry = annotations.get(reference.toString());
+            if (entry == null) {
+                throw new IllegalStateException("No index entry for " + reference);
+            }
+            Object refName = entry.get(OciLayoutWriter.REF_NAME_ANNOTATION);
+            boolean valid = reference.getTag() != null
+                ? reference.getTag().equals(refName) : !entry.containsKey(OciLayoutWriter.REF_NAME_ANNOTATION);
+            if (!valid) {
+                throw new IllegalStateException("ref.name of " + reference + " is " + refName);
+            }
+        }
+    }
+
+    /**
+     * Reads one small entry from a ustar archive as written by the export writers.
+     */
+    private static byte[] readTarEntry(Path archive, String name) throws IOException {
+        try (InputStream in = Files.newInputStream(archive)) {
+            byte[] header = new byte[512];
+            while (in.readNBytes(header, 0, header.length) == header.length && header[0] != 0) {
+                // trim() also drops the NUL padding
+                String entryName = new String(header, 0, 100, StandardCharsets.UTF_8).trim();
+                String prefix = new String(header, 345, 155, StandardCharsets.UTF_8).trim();
+                if (!prefix.isEmpty()) {
+                    entryName = prefix + "/" + entryName;
+                }
+                long size = Long.parseLong(new String(header, 124, 11, StandardCharsets.US_ASCII).trim(), 8);
+                if (entryName.equals(name)) {
+                    return in.readNBytes((int) size);
+                }
+                for (long remaining = (size + 511) / 512 * 512; remaining > 0; ) {
+                    long skipped = in.skip(remaining);
+                    if (skipped <= 0) {
+                        throw new IOException("Truncated archive: " + archive);
+                    }
+                    remaining -= skipped;
+                }
+            }
+        }
+        throw new IOException("No " + name + " in " + archive);
+    }
+
+    private void runPeers(FakeRegistry registry, EcrClient ecrClient, Map<String, String> imageUris, ConcurrencyLimits limits)
+            throws Exception {
+        List<Path> caches = new ArrayList<>();
+        List<PeerServer> servers = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(nodes);
+        try {
+            for (int node = 0; node < nodes; node++) {
+                Path cache = Files.createTempDirectory("pull-harness-node");
+                caches.add(cache);
+                servers.add(PeerServer.start(new BlobStore(cache), 0));
+            }
+            System.out.printf("%-6s %10s %14s %10s%n", "node", "seconds", "registry MB", "peer MB");
+
+            // The first node seeds the others, as the first runner of a scaled-out batch would
+            printNode(0, pullNode(registry, ecrClient, imageUris, limits, caches, servers, 0));
+            List<Future<PullMetrics>> others = new ArrayList<>();
+            for (int node = 1; node < nodes; node++) {
+                int index = node;
+                others.add(executor.submit(() -> pullNode(registry, ecrClient, imageUris, limits, caches, servers, index)));
+            }
+            for (int node = 1; node < nodes; node++) {
+                printNode(node, others.get(node - 1).get());
+            }
+            System.out.printf("Registry served %.1f MB to %d nodes for %.1f MB of unique blobs%n",
+                registry.getBytesServed() / (1024.0 * 1024.0), nodes, registry.getUniqueBytes() / (1024.0 * 1024.0));
+        } finally {
+            executor.shutdownNow();
+            servers.forEach(PeerServer::close);
+            for (Path cache : caches) {
+                deleteRecursively(cache);
+            }
+        }
+    }
+
+    private static PullMetrics pullNode(FakeRegistry registry, EcrClient ecrClient, Map<String, String> imageUris,
+            ConcurrencyLimits limits, List<Path> caches, List<PeerServer> servers, int node) throws Exception {
+        List<URI> peers = new ArrayList<>();
+        for (int other = 0; other < servers.size(); other++) {
+            if (other != node) {
+                peers.add(PeerClient.parsePeer("127.0.0.1:" + servers.get(other).getPort()));
+            }
+        }
+        PullMetrics metrics = new PullMetrics();
+        pull(registry, ecrClient, imageUris, limits, caches.get(node), new PeerClient(peers, null), metrics);
+        return metrics;
+    }
+
+    private static void printNode(int node, PullMetrics metrics) {
+        Map<String, Object> report = metrics.report();
+        System.out.printf("%-6d %10.2f %14.1f %10.1f%n", node, ((Number) report.get("durationMillis")).longValue() / 1000.0,
+            ((Number) report.get("downloadedBytes")).longValue() / (1024.0 * 1024.0),
+            ((Number) report.get("peerBytes")).longValue() / (1024.0 * 1024.0));
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(root)) {
+            paths = new ArrayList<>(walk.collect(Collectors.toList()));
+        }
+        Collections.reverse(paths);
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.jit.ecr.benchmarks;
+
+import com.jit.ecr.AdaptiveScheduler;
+import com.jit.ecr.ConcurrencyLimits;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-task overhead of the adaptive scheduler against a plain fixed thread pool, for a batch of
+ * tiny tasks such as blob existence checks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchedulerBenchmark {
+    @Param({"100"})
+    public int tasks;
+
+    @Param({"4", "16"})
+    public int concurrency;
+
+    private AdaptiveScheduler scheduler;
+    private ExecutorService fixedPool;
+
+    @Setup
+    public void setUp() {
+        scheduler = new AdaptiveScheduler(ConcurrencyLimits.fixed(concurrency));
+        fixedPool = Executors.newFixedThreadPool(concurrency);
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.close();
+        fixedPool.shutdownNow();
+    }
+
+    @Benchmark
+    public void adaptiveScheduler(Blackhole blackhole) {
+        CompletableFuture<?>[] futures = new CompletableFuture[tasks];
+        for (int i = 0; i < tasks; i++) {
+            int value = i;
+            futures[i] = scheduler.submit(() -> blackhole.consume(value));
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+
+    @Benchmark
+    public void fixedThreadPool(Blackhole blackhole) {
+        CompletableFuture<?>[] futures = new CompletableFuture[tasks];
+        for (int i = 0; i < tasks; i++) {
+            int value = i;
+            futures[i] = CompletableFuture.runAsync(() -> blackhole.consume(value), fixedPool);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+}
@@ -0,0 +1,203 @@
+package com.jit.ecr.checks;
+
+import com.jit.ecr.DockerEngineClient;
+import com.jit.ecr.DockerProgressEvent;
+import com.jit.ecr.ImageReference;
+import com.jit.ecr.Platform;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Drives {@link DockerEngineClient} against {@link FakeDockerDaemon} over a real unix socket and
+ * checks each Engine API call end to end: ping, inspect of a present and a missing image, a pull
+ * with registry credentials and per-layer progress, a pull that fails mid-stream, a chunked load
+ * and responses that are not valid HTTP. Exits 1 if any check fails. Needs Java 16+.
+ *
+ * <pre>
+ * java -jar target/checks.jar
+ * </pre>
+ */
+public class DockerEngineCheck {
+    private static final String REGISTRY = "123456789012.dkr.ecr.us-east-1.amazonaws.com";
+    private static final String IMAGE = REGISTRY + "/jit-ide:trivy";
+
+    private final DockerEngineClient client;
+    private final FakeDockerDaemon daemon;
+    private int failures;
+
+    private DockerEngineCheck(DockerEngineClient client, FakeDockerDaemon daemon) {
+        this.client = client;
+        this.daemon = daemon;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (!FakeDockerDaemon.isSupported() || !DockerEngineClient.isSupported()) {
+            System.err.println("The Docker Engine API client needs Java 16 or newer");
+            System.exit(1);
+        }
+        Path directory = Files.createTempDirectory("fake-docker");
+        int failures;
+        try (FakeDockerDaemon daemon = FakeDockerDaemon.start(directory.resolve("docker.sock"))) {
+            DockerEngineCheck check = new DockerEngineCheck(new DockerEngineClient(daemon.getSocket()), daemon);
+            check.run();
+            failures = check.failures;
+        } finally {
+            Files.deleteIfExists(directory);
+        }
+        if (failures > 0) {
+            System.err.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    private interface Check {
+        void run() throws Exception;
+    }
+
+    private void run() {
+        check("ping", () -> expect(client.ping(), "ping returned false"));
+        check("inspect present", this::inspectPresent);
+        check("inspect missing", () -> expect(client.inspectImage(REGISTRY + "/jit-ide:missing") == null,
+            "a 404 should return null"));
+        check("pull", this::pull);
+        check("pull error mid-stream", this::pullError);
+        check("load", this::load);
+        check("invalid status lines", this::invalidStatusLine);
+    }
+
+    private void check(String name, Check check) {
+        try {
+            check.run();
+            System.out.printf("ok    %s%n", name);
+        } catch (Exception | AssertionError e) {
+            failures++;
+            System.out.printf("FAIL  %s: %s%n", name, e);
+        }
+    }
+
+    private void inspectPresent() throws IOException {
+        Map<String, Object> inspect = new LinkedHashMap<>();
+        inspect.put("Id", "sha256:" + "ab".repeat(32));
+        inspect.put("RepoTags", List.of(IMAGE));
+        inspect.put("Size", 123456789L);
+        daemon.addImage(IMAGE, inspect);
+        // The daemon writes stray bytes after the declared Content-Length; parsing fails if they are read
+        Map<String, Object> result = client.inspectImage(IMAGE);
+        expect(inspect.equals(result), "expected " + inspect + ", got " + result);
+    }
+
+    private void pull() throws IOException {
+        List<DockerProgressEvent> events = new ArrayList<>();
+        ImageReference image = ImageReference.parse(IMAGE);
+        client.pullImage(image, Platform.parse("linux/arm64"), "AWS", "token/with+url=chars", events::add);
+
+        Map<String, Object> auth = daemon.getLastAuth();
+        Map<String, Object> expectedAuth = new LinkedHashMap<>();
+        expectedAuth.put("username", "AWS");
+        expectedAuth.put("password", "token/with+url=chars");
+        expectedAuth.put("serveraddress", REGISTRY);
+        expect(expectedAuth.equals(auth), "X-Registry-Auth decoded to " + auth);
+
+        Map<String, String> query = daemon.getLastPullQuery();
+        expect((REGISTRY + "/jit-ide").equals(query.get("fromImage")), "fromImage was " + query.get("fromImage"));
+        expect("trivy".equals(query.get("tag")), "tag was " + query.get("tag"));
+        expect("linux/arm64".equals(query.get("platform")), "platform was " + query.get("platform"));
+
+        Set<String> done = new LinkedHashSet<>();
+        Map<String, Long> downloaded = new LinkedHashMap<>();
+        for (DockerProgressEvent event : events) {
+            if (event.isDownloading()) {
+                long previous = downloaded.getOrDefault(event.getId(), 0L);
+                expect(event.getCurrent() > previous && event.getTotal() == FakeDockerDaemon.LAYER_SIZE,
+                    "out of order progress " + event);
+                downloaded.put(event.getId(), event.getCurrent());
+            }
+            if (event.isLayerDone()) {
+                done.add(event.getId());
+            }
+        }
+        Set<String> layers = new LinkedHashSet<>();
+        for (int layer = 0; layer < FakeDockerDaemon.LAYERS; layer++) {
+            layers.add(FakeDockerDaemon.layerId(layer));
+            expect(Long.valueOf(FakeDockerDaemon.LAYER_SIZE).equals(downloaded.get(FakeDockerDaemon.layerId(layer))),
+                "layer " + FakeDockerDaemon.layerId(layer) + " downloaded " + downloaded.get(FakeDockerDaemon.layerId(layer)));
+        }
+        expect(layers.equals(done), "completed layers " + done + ", expected " + layers);
+        DockerProgressEvent last = events.get(events.size() - 1);
+        expect(last.getStatus() != null && last.getStatus().startsWith("Status: Downloaded newer image"),
+            "last event was " + last);
+    }
+
+    private void pullError() {
+        List<DockerProgressEvent> events = new ArrayList<>();
+        ImageReference image = ImageReference.parse(REGISTRY + "/" + FakeDockerDaemon.FAILING_REPOSITORY + ":latest");
+        try {
+            client.pullImage(image, "AWS", "token", events::add);
+            throw new AssertionError("the pull should have failed");
+        } catch (IOException e) {
+            expect(e.getMessage().contains(FakeDockerDaemon.PULL_ERROR), "unexpected message: " + e.getMessage());
+        }
+        // Events before the error line are still delivered
+        long completed = events.stream().filter(DockerProgressEvent::isLayerDone).count();
+        expect(completed == 1, completed + " layers completed before the error, expected 1");
+    }
+
+    private void load() throws IOException {
+        // Odd-sized writes and single bytes around the 64 KiB chunk size, ending in a partial chunk
+        byte[] archive = new byte[3 * 64 * 1024 + 12345];
+        new Random(42).nextBytes(archive);
+        List<DockerProgressEvent> events = new ArrayList<>();
+        client.loadImages(out -> {
+            int offset = 0;
+            for (int size = 1; offset < archive.length; size = size * 7 % 100_003 + 1) {
+                if (size % 3 == 0) {
+                    out.write(archive[offset++]);
+                } else {
+                    int length = Math.min(size, archive.length - offset);
+                    out.write(archive, offset, length);
+                    offset += length;
+                }
+            }
+        }, events::add);
+
+        expect(Arrays.equals(archive, daemon.getLastLoad()), "the daemon received " + daemon.getLastLoad().length
+            + " bytes, expected " + archive.length);
+        List<Integer> chunks = daemon.getLastLoadChunks();
+        expect(chunks.size() == 4 && chunks.stream().allMatch(size -> size <= 64 * 1024),
+            "unexpected chunk sizes " + chunks);
+        expect(events.size() == 1 && ("Loaded image: " + archive.length + " bytes").equals(events.get(0).toString()),
+            "load reported " + events);
+    }
+
+    private void invalidStatusLine() {
+        expectFailure("garbage", "Invalid response from Docker daemon");
+        expectFailure("truncated", "Malformed status line");
+        expectFailure("bad-status", "Malformed status line");
+    }
+
+    private void expectFailure(String name, String message) {
+        try {
+            client.inspectImage(name);
+            throw new AssertionError("the response for " + name + " should fail");
+        } catch (IOException e) {
+            expect(e.getMessage().startsWith(message), "unexpected message for " + name + ": " + e.getMessage());
+        }
+    }
+
+    private static void expect(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
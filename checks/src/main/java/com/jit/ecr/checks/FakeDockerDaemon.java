@@ -0,0 +1,395 @@
+package com.jit.ecr.checks;
+
+import com.jit.ecr.Json;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process stand-in for the Docker daemon on a unix socket, answering the Engine API calls
+ * {@code DockerEngineClient} makes: ping, image inspect, {@code POST /images/create} and
+ * {@code POST /images/load}. It records what the client sent so {@link DockerEngineCheck} can
+ * verify it.
+ *
+ * <p>Responses exercise the client's HTTP handling: ping and inspect use {@code Content-Length}
+ * with stray bytes after the body, pulls and loads stream chunked progress in chunks that split
+ * JSON lines and end with a trailer section, and the request body of a load must arrive chunked.
+ *
+ * <p>Like the client, it looks up unix domain sockets reflectively (Java 16+); check
+ * {@link #isSupported()} first.
+ */
+public class FakeDockerDaemon implements AutoCloseable {
+    /**
+     * Repository whose pulls fail partway through the progress stream, as a registry error would.
+     */
+    public static final String FAILING_REPOSITORY = "failing";
+    public static final String PULL_ERROR = "received unexpected HTTP status: 500 Internal Server Error";
+    public static final int LAYERS = 3;
+    public static final long LAYER_SIZE = 5 * 1024 * 1024;
+    /**
+     * Image names whose inspect gets a broken response instead of HTTP: another protocol, a
+     * status line cut off after the version, and a status code that is not a number.
+     */
+    public static final Map<String, String> MALFORMED_RESPONSES = Map.of(
+        "garbage", "SSH-2.0-OpenSSH_9.6\r\n\r\n",
+        "truncated", "HTTP/1.1",
+        "bad-status", "HTTP/1.1 2xx OK\r\n\r\n");
+    private static final int PROGRESS_CHUNK_SIZE = 7;
+
+    private static final ProtocolFamily UNIX_FAMILY;
+    private static final Method OPEN_SERVER;
+    private static final Method ADDRESS_OF;
+
+    static {
+        ProtocolFamily family = null;
+        Method open = null;
+        Method addressOf = null;
+        try {
+            family = StandardProtocolFamily.valueOf("UNIX");
+            open = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            // Pre-16 runtime: no unix domain socket support
+        }
+        UNIX_FAMILY = family;
+        OPEN_SERVER = open;
+        ADDRESS_OF = addressOf;
+    }
+
+    private final Path socket;
+    private final ServerSocketChannel server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, Map<String, Object>> images = new ConcurrentHashMap<>();
+    private volatile Map<String, Object> lastAuth;
+    private volatile Map<String, String> lastPullQuery;
+    private volatile byte[] lastLoad;
+    private volatile List<Integer> lastLoadChunks;
+
+    private FakeDockerDaemon(Path socket, ServerSocketChannel server) {
+        this.socket = socket;
+        this.server = server;
+        executor.execute(this::acceptLoop);
+    }
+
+    public static boolean isSupported() {
+        return ADDRESS_OF != null;
+    }
+
+    /**
+     * Listens on {@code socket}, which must not exist yet.
+     */
+    public static FakeDockerDaemon start(Path socket) throws IOException {
+        if (!isSupported()) {
+            throw new IllegalStateException("Unix domain sockets need Java 16 or newer");
+        }
+        try {
+            ServerSocketChannel server = (ServerSocketChannel) OPEN_SERVER.invoke(null, UNIX_FAMILY);
+            server.bind((SocketAddress) ADDRESS_OF.invoke(null, socket.toString()));
+            return new FakeDockerDaemon(socket, server);
+        } catch (ReflectiveOperationException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Cannot listen on " + socket + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    public Path getSocket() {
+        return socket;
+    }
+
+    /**
+     * Makes {@code GET /images/{name}/json} answer with {@code inspect} instead of 404.
+     */
+    public void addImage(String name, Map<String, Object> inspect) {
+        images.put(name, inspect);
+    }
+
+    /**
+     * The decoded {@code X-Registry-Auth} of the last pull, or null if it carried none.
+     */
+    public Map<String, Object> getLastAuth() {
+        return lastAuth;
+    }
+
+    public Map<String, String> getLastPullQuery() {
+        return lastPullQuery;
+    }
+
+    /**
+     * The de-chunked body of the last load, and the size of each chunk it arrived in.
+     */
+    public byte[] getLastLoad() {
+        return lastLoad;
+    }
+
+    public List<Integer> getLastLoadChunks() {
+        return lastLoadChunks;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        executor.shutdownNow();
+        Files.deleteIfExists(socket);
+    }
+
+    private void acceptLoop() {
+        while (server.isOpen()) {
+            try {
+                SocketChannel channel = server.accept();
+                executor.execute(() -> handle(channel));
+            } catch (IOException e) {
+                // Closed
+                return;
+            }
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (channel) {
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+            OutputStream out = Channels.newOutputStream(channel);
+            String requestLine = readLine(in);
+            if (requestLine == null) {
+                return;
+            }
+            String[] parts = requestLine.split(" ");
+            String method = parts[0];
+            String target = parts[1];
+            Map<String, String> headers = new LinkedHashMap<>();
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+            List<Integer> chunks = new ArrayList<>();
+            byte[] body = "chunked".equalsIgnoreCase(headers.get("transfer-encoding"))
+                ? readChunked(in, chunks) : in.readNBytes(Integer.parseInt(headers.getOrDefault("content-length", "0")));
+
+            int query = target.indexOf('?');
+            String path = query >= 0 ? target.substring(0, query) : target;
+            Map<String, String> params = query >= 0 ? parseQuery(target.substring(query + 1)) : Map.of();
+            if (!path.startsWith("/v1.")) {
+                send(out, 400, "{\"message\":\"missing API version\"}");
+            } else {
+                route(method, path.substring(path.indexOf('/', 1)), params, headers, body, chunks, out);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // The client went away
+        }
+    }
+
+    private void route(String method, String path, Map<String, String> params, Map<String, String> headers, byte[] body,
+            List<Integer> chunks, OutputStream out) throws IOException {
+        if ("GET".equals(method) && path.equals("/_ping")) {
+            send(out, 200, "OK");
+        } else if ("GET".equals(method) && path.startsWith("/images/") && path.endsWith("/json")) {
+            String name = path.substring("/images/".length(), path.length() - "/json".length());
+            if (MALFORMED_RESPONSES.containsKey(name)) {
+                out.write(MALFORMED_RESPONSES.get(name).getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            Map<String, Object> inspect = images.get(name);
+            if (inspect == null) {
+                send(out, 404, "{\"message\":\"No such image: " + name + "\"}");
+            } else {
+                send(out, 200, Json.write(inspect));
+            }
+        } else if ("POST".equals(method) && path.equals("/images/create")) {
+            String auth = headers.get("x-registry-auth");
+            lastAuth = auth != null ? Json.parseObject(Base64.getUrlDecoder().decode(auth)) : null;
+            lastPullQuery = params;
+            sendChunked(out, pullProgress(params.get("fromImage"), params.get("tag")));
+        } else if ("POST".equals(method) && path.equals("/images/load")) {
+            lastLoad = body;
+            lastLoadChunks = chunks;
+            if (!"application/x-tar".equals(headers.get("content-type"))) {
+                send(out, 400, "{\"message\":\"expected application/x-tar\"}");
+                return;
+            }
+            List<Map<String, Object>> events = new ArrayList<>();
+            events.add(Map.of("stream", "Loaded image: " + body.length + " bytes\n"));
+            sendChunked(out, events);
+        } else {
+            send(out, 404, "{\"message\":\"page not found\"}");
+        }
+    }
+
+    /**
+     * The progress stream of a pull: per layer the usual lifecycle from "Pulling fs layer" to
+     * "Pull complete", with a few download updates. Pulls of {@link #FAILING_REPOSITORY} break
+     * off with an error line once the first layer is done.
+     */
+    private static List<Map<String, Object>> pullProgress(String repository, String tag) {
+        List<Map<String, Object>> events = new ArrayList<>();
+        events.add(event(tag, "Pulling from " + repository, null));
+        for (int layer = 0; layer < LAYERS; layer++) {
+            events.add(event(layerId(layer), "Pulling fs layer", null));
+        }
+        boolean failing = repository.endsWith("/" + FAILING_REPOSITORY);
+        for (int layer = 0; layer < LAYERS; layer++) {
+            String id = layerId(layer);
+            for (long current = LAYER_SIZE / 4; current <= LAYER_SIZE; current += LAYER_SIZE / 4) {
+                Map<String, Object> detail = new LinkedHashMap<>();
+                detail.put("current", current);
+                detail.put("total", LAYER_SIZE);
+                events.add(event(id, "Downloading", detail));
+            }
+            events.add(event(id, "Download complete", null));
+            events.add(event(id, "Extracting", null));
+            events.add(event(id, "Pull complete", null));
+            if (failing) {
+                Map<String, Object> error = new LinkedHashMap<>();
+                error.put("errorDetail", Map.of("message", PULL_ERROR));
+                error.put("error", PULL_ERROR);
+                events.add(error);
+                return events;
+            }
+        }
+        events.add(event(null, "Digest: sha256:" + "0".repeat(64), null));
+        events.add(event(null, "Status: Downloaded newer image for " + repository + ":" + tag, null));
+        return events;
+    }
+
+    public static String layerId(int layer) {
+        return String.format("%012x", 0xa11ceL + layer);
+    }
+
+    private static Map<String, Object> event(String id, String status, Map<String, Object> detail) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("status", status);
+        if (detail != null) {
+            event.put("progressDetail", detail);
+        }
+        if (id != null) {
+            event.put("id", id);
+        }
+        return event;
+    }
+
+    /**
+     * A complete response with {@code Content-Length}, followed by bytes past the declared
+     * length that the client must not read as part of the body.
+     */
+    private static void send(OutputStream out, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String head = statusLine(status)
+            + "Api-Version: 1.41\r\n"
+            + "Content-Type: " + (body.startsWith("{") ? "application/json" : "text/plain; charset=utf-8") + "\r\n"
+            + "Content-Length: " + bytes.length + "\r\n"
+            + "\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.write("\r\n\r\nnot part of the body".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Newline-delimited JSON in deliberately small chunks, so lines straddle chunk boundaries.
+     * The first chunk carries an extension and the last is followed by a trailer field.
+     */
+    private static void sendChunked(OutputStream out, List<Map<String, Object>> events) throws IOException {
+        String head = statusLine(200)
+            + "Api-Version: 1.41\r\n"
+            + "Content-Type: application/json\r\n"
+            + "Transfer-Encoding: chunked\r\n"
+            + "Trailer: X-Stream-Events\r\n"
+            + "\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        StringBuilder stream = new StringBuilder();
+        for (Map<String, Object> event : events) {
+            stream.append(Json.write(event)).append("\r\n");
+        }
+        byte[] bytes = stream.toString().getBytes(StandardCharsets.UTF_8);
+        for (int offset = 0; offset < bytes.length; offset += PROGRESS_CHUNK_SIZE) {
+            int length = Math.min(PROGRESS_CHUNK_SIZE, bytes.length - offset);
+            String size = Integer.toHexString(length) + (offset == 0 ? ";progress=json" : "");
+            out.write((size + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(bytes, offset, length);
+            out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        out.write(("0\r\nX-Stream-Events: " + events.size() + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String statusLine(int status) {
+        String reason = status == 200 ? "OK" : status == 400 ? "Bad Request" : "Not Found";
+        return "HTTP/1.1 " + status + " " + reason + "\r\n";
+    }
+
+    private static byte[] readChunked(InputStream in, List<Integer> chunks) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            String size = readLine(in);
+            if (size == null) {
+                throw new IOException("Truncated chunked request");
+            }
+            int extension = size.indexOf(';');
+            int length = Integer.parseInt((extension >= 0 ? size.substring(0, extension) : size).trim(), 16);
+            if (length == 0) {
+                String trailer;
+                while ((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+                    continue;
+                }
+                return body.toByteArray();
+            }
+            byte[] chunk = in.readNBytes(length);
+            if (chunk.length != length || !"".equals(readLine(in))) {
+                throw new IOException("Malformed chunk of " + length + " bytes");
+            }
+            body.write(chunk);
+            chunks.add(length);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals >= 0 ? pair.substring(0, equals) : pair, StandardCharsets.UTF_8);
+            params.putIfAbsent(name, equals >= 0 ? URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8) : "");
+        }
+        return params;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
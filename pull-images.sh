@@ -40,7 +40,13 @@ fi
 
 # Run the application with any provided arguments
 echo "Running ECR Image Puller..."
-java -jar "$JAR_FILE" "$@"
+# Start from the class-data-sharing archive if `make build-cds` made one
+CDS_ARCHIVE="target/ecr-image-puller.jsa"
+if [ -f "$CDS_ARCHIVE" ]; then
+  java -XX:SharedArchiveFile="$CDS_ARCHIVE" -jar "$JAR_FILE" "$@"
+else
+  java -jar "$JAR_FILE" "$@"
+fi
 
 # Check the exit code
 EXIT_CODE=$?
@@ -1,4 +1,36 @@
+import com.jit.ecr.AdaptiveScheduler;
+import com.jit.ecr.BlobStore;
+import com.jit.ecr.ConcurrencyLimits;
+import com.jit.ecr.Descriptor;
+import com.jit.ecr.DockerArchiveWriter;
+import com.jit.ecr.DockerEngineClient;
+import com.jit.ecr.DockerPullProgress;
+import com.jit.ecr.EcrDigestResolver;
+import com.jit.ecr.EcrTokenCache;
+import com.jit.ecr.ImageCatalog;
+import com.jit.ecr.ImageEvictor;
+import com.jit.ecr.ImageReference;
+import com.jit.ecr.ImageStateStore;
+import com.jit.ecr.Json;
+import com.jit.ecr.NativePuller;
+import com.jit.ecr.PeerClient;
+import com.jit.ecr.PeerServer;
+import com.jit.ecr.PullDeadlines;
+import com.jit.ecr.OciArchiveWriter;
+import com.jit.ecr.OciLayoutWriter;
+import com.jit.ecr.ParallelGzipOutputStream;
+import com.jit.ecr.Platform;
+import com.jit.ecr.PrefetchDaemon;
+import com.jit.ecr.PullOptions;
+import com.jit.ecr.PullMetrics;
+import com.jit.ecr.PullPlan;
+import com.jit.ecr.PulledImage;
+import com.jit.ecr.RegistryClient;
+import com.jit.ecr.TagDigestCache;
+import com.jit.ecr.VirtualThreads;
+import com.sun.net.httpserver.HttpServer;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
@@ -10,48 +42,82 @@ import software.amazon.awssdk.services.ecr.model.GetAuthorizationTokenResponse;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 public class EcrImagePuller {
-    private static final String DOCKER_REGISTRY = "899025839375.dkr.ecr.us-east-1.amazonaws.com";
-    private static final String JIT_DOCKER_REPO = DOCKER_REGISTRY + "/jit-ide";
-    private static final Region AWS_REGION = Region.US_EAST_1;
-    private static final Map<String, String> IMAGE_URIS = new HashMap<>();
+    private static final Duration DAEMON_SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
     
-    static {
-        // Define the image URIs exactly as in docker-image-management.md
-        // Secrets scanning
-        IMAGE_URIS.put("gitleaks", JIT_DOCKER_REPO + ":jit-gitleaks-control");
-        
-        // SAST tools
-        IMAGE_URIS.put("semgrep", JIT_DOCKER_REPO + ":jit-semgrep-control");
-        IMAGE_URIS.put("gosec", JIT_DOCKER_REPO + ":jit-gosec-control");
-        
-        // SCA tools
-        IMAGE_URIS.put("nancy", JIT_DOCKER_REPO + ":jit-nancy-control");
-        IMAGE_URIS.put("npm-audit", JIT_DOCKER_REPO + ":jit-npm-audit-control-latest");
-        IMAGE_URIS.put("osv-scanner", JIT_DOCKER_REPO + ":jit-osv-scanner-control");
+    // Created on first use, so runs that make no AWS call never load the SDK
+    private AwsCredentialsProvider credentialsProvider;
+    private final Map<String, EcrClient> ecrClients = new HashMap<>();
+    private final EcrTokenCache tokenCache;
+    private final AdaptiveScheduler scheduler;
+    private final PullMetrics metrics = new PullMetrics();
+    // Registry host -> credentials from the last authentication
+    private final Map<String, EcrTokenCache.Entry> registryLogins = new ConcurrentHashMap<>();
+    private ImageCatalog catalog;
+    private ImageStateStore imageState;
+    private DockerEngineClient dockerEngine;
+    private PeerClient peerClient;
+    private PeerServer peerServer;
+    private PullDeadlines deadlines = PullDeadlines.NONE;
+    private boolean closed;
+    
+    private static final class LocalImage {
+        private final String id;
+        private final Set<String> repoDigests;
         
-        // IaC scanning
-        IMAGE_URIS.put("kics", JIT_DOCKER_REPO + ":jit-kics-control-latest");
-        IMAGE_URIS.put("kubescape", JIT_DOCKER_REPO + ":jit-kubescape-control");
-        IMAGE_URIS.put("trivy", JIT_DOCKER_REPO + ":jit-trivy-control");
+        private LocalImage(String id, Set<String> repoDigests) {
+            this.id = id;
+            this.repoDigests = repoDigests;
+        }
     }
     
-    private final EcrClient ecrClient;
-    private final ExecutorService executorService;
-    
     public EcrImagePuller() {
+        this(ConcurrencyLimits.defaults());
+    }
+    
+    /**
+     * Creates a puller whose transfers run on an adaptive scheduler bounded by the given limits.
+     */
+    public EcrImagePuller(ConcurrencyLimits concurrencyLimits) {
+        this.tokenCache = new EcrTokenCache(BlobStore.defaultRoot().resolve("auth"));
+        this.scheduler = new AdaptiveScheduler(concurrencyLimits);
+    }
+    
+    /**
+     * The AWS credentials provider, created on first use from the .env file or the default chain.
+     */
+    private synchronized AwsCredentialsProvider credentialsProvider() {
+        if (credentialsProvider != null) {
+            return credentialsProvider;
+        }
         Map<String, String> envVars = loadEnvFile();
         
         if (envVars.containsKey("AWS_ACCESS_KEY_ID") && envVars.containsKey("AWS_SECRET_ACCESS_KEY")) {
@@ -65,30 +131,31 @@ public class EcrImagePuller {
                     envVars.get("AWS_SECRET_ACCESS_KEY"),
                     envVars.get("AWS_SESSION_TOKEN")
                 );
-                this.ecrClient = EcrClient.builder()
-                    .region(AWS_REGION)
-                    .credentialsProvider(StaticCredentialsProvider.create(credentials))
-                    .build();
+                this.credentialsProvider = StaticCredentialsProvider.create(credentials);
             } else {
                 // Create basic credentials without token
                 AwsBasicCredentials credentials = AwsBasicCredentials.create(
                     envVars.get("AWS_ACCESS_KEY_ID"),
                     envVars.get("AWS_SECRET_ACCESS_KEY")
                 );
-                this.ecrClient = EcrClient.builder()
-                    .region(AWS_REGION)
-                    .credentialsProvider(StaticCredentialsProvider.create(credentials))
-                    .build();
+                this.credentialsProvider = StaticCredentialsProvider.create(credentials);
             }
         } else {
             // Fall back to default credentials provider
             System.out.println("No AWS credentials found in .env file, using default credentials provider");
-            this.ecrClient = EcrClient.builder()
-                .region(AWS_REGION)
-                .build();
+            this.credentialsProvider = DefaultCredentialsProvider.create();
         }
-        
-        this.executorService = Executors.newFixedThreadPool(4);
+        return credentialsProvider;
+    }
+    
+    /**
+     * The ECR client for {@code region}, created on first use.
+     */
+    private synchronized EcrClient ecrClient(String region) {
+        return ecrClients.computeIfAbsent(region, id -> EcrClient.builder()
+            .region(Region.of(id))
+            .credentialsProvider(credentialsProvider())
+            .build());
     }
     
     private Map<String, String> loadEnvFile() {
@@ -131,54 +198,220 @@ public class EcrImagePuller {
     }
     
     public static void main(String[] args) {
-        // Verify Docker is installed and running
-        if (!isDockerRunning()) {
+        PullOptions options;
+        try {
+            options = PullOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(PullOptions.usage());
+            System.exit(1);
+            return;
+        }
+        boolean nativeEngine = options.getEngine() == PullOptions.Engine.NATIVE;
+
+        // Prefer the Engine API over the unix socket; fall back to the docker CLI if it is unavailable
+        DockerEngineClient dockerEngine = options.isDockerCli() ? null : DockerEngineClient.connect();
+        if (dockerEngine != null && !dockerEngine.ping()) {
+            dockerEngine = null;
+        }
+
+        // Verify Docker is installed and running, unless the images only go to an OCI layout
+        if (options.getOutput() == PullOptions.Output.DOCKER && dockerEngine == null && !isDockerRunning()) {
             System.err.println("Docker is not installed or not running. Please install Docker and try again.");
             System.exit(1);
         }
 
-        EcrImagePuller puller = new EcrImagePuller();
+        if (options.getConcurrencyLimits().isVirtualThreads() && !VirtualThreads.isSupported()) {
+            System.err.println("Virtual threads need Java 21 or newer, using platform threads");
+        }
+        EcrImagePuller puller = new EcrImagePuller(options.getConcurrencyLimits());
+        puller.dockerEngine = dockerEngine;
+        puller.deadlines = PullDeadlines.start(options.getTimeout(), options.getImageTimeout());
         
+        // Failed images, including those cut off by a deadline, make the run exit 1
+        int exitCode = 0;
         try {
-            // Authenticate with ECR
-            System.out.println("Authenticating with AWS ECR...");
-            if (!puller.authenticateEcr()) {
-                System.err.println("Failed to authenticate with ECR. Check your AWS credentials.");
+            if (options.getImportFile() != null) {
+                if (!puller.importBundle(options.getImportFile())) {
+                    System.exit(1);
+                }
+                return;
+            }
+            
+            try {
+                puller.catalog = options.getCatalogFile() != null
+                    ? ImageCatalog.load(options.getCatalogFile()) : ImageCatalog.builtIn();
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Could not load the image catalog: " + e.getMessage());
                 System.exit(1);
             }
+            if (options.isPeerMode()) {
+                puller.startPeerMode(options);
+            }
             
             // Determine which images to pull
-            String[] imagesToPull;
-            if (args.length > 0) {
-                // Validate image names
-                boolean hasUnknownImage = false;
-                for (String imageName : args) {
-                    if (!IMAGE_URIS.containsKey(imageName)) {
-                        System.err.println("Unknown image: " + imageName);
-                        hasUnknownImage = true;
-                    }
-                }
-                
-                if (hasUnknownImage) {
-                    System.out.println("\nAvailable images:");
-                    IMAGE_URIS.keySet().stream().sorted().forEach(name -> System.out.println("- " + name));
+            String[] imagesToPull = puller.selectImages(options);
+            if (imagesToPull == null) {
+                System.exit(1);
+            }
+            Map<String, Integer> priorities = puller.priorities(imagesToPull, options);
+            
+            if (options.isDaemon()) {
+                puller.runDaemon(imagesToPull, options);
+                return;
+            }
+            
+            // Skip images whose local copy already matches the remote tag
+            String[] requestedImages = imagesToPull;
+            List<String> upToDate = new ArrayList<>();
+            if (!options.isForce() && options.getOutput() == PullOptions.Output.DOCKER) {
+                imagesToPull = puller.skipUpToDate(imagesToPull, upToDate, options);
+            }
+            if (options.isCheck()) {
+                System.out.println("\nUp to date: " + (upToDate.isEmpty() ? "none" : String.join(", ", upToDate)));
+                System.out.println("Out of date: " + (imagesToPull.length == 0 ? "none" : String.join(", ", imagesToPull)));
+                puller.writeReport(options);
+                if (imagesToPull.length > 0) {
                     System.exit(1);
                 }
-                
-                imagesToPull = args;
-            } else {
-                // Default images to pull if none specified - based on INITIAL_CONTROLS from the doc
-                imagesToPull = new String[]{"gitleaks", "semgrep", "trivy", "kics"};
+                return;
+            }
+            if (imagesToPull.length == 0) {
+                printSummary(upToDate, new ArrayList<>(), new ArrayList<>());
+                puller.recordUse(upToDate, options);
+                puller.enforceDiskBudget(requestedImages, options);
+                puller.writeReport(options);
+                return;
+            }
+            
+            // Authenticate with ECR; docker login is only needed when pulling through the CLI,
+            // the native engine and the Engine API use the token directly
+            System.out.println("Authenticating with AWS ECR...");
+            if (!puller.authenticateEcr(imagesToPull, !nativeEngine && dockerEngine == null)) {
+                System.err.println("Failed to authenticate with ECR. Check your AWS credentials.");
+                System.exit(1);
             }
             
             // Pull the specified images
-            puller.pullImages(imagesToPull);
+            List<String> updated = nativeEngine
+                ? puller.pullImagesNative(imagesToPull, options, priorities)
+                : puller.pullImages(imagesToPull, options, priorities);
+            
+            List<String> failed = new ArrayList<>();
+            for (String imageName : imagesToPull) {
+                if (!updated.contains(imageName)) {
+                    failed.add(imageName);
+                }
+            }
+            printSummary(upToDate, updated, failed);
+            if (!nativeEngine) {
+                puller.recordDockerPulls(updated, options);
+            }
+            List<String> present = new ArrayList<>(upToDate);
+            present.addAll(updated);
+            puller.recordUse(present, options);
+            puller.enforceDiskBudget(requestedImages, options);
+            puller.writeReport(options);
+            if (!failed.isEmpty()) {
+                exitCode = 1;
+            }
         } catch (Exception e) {
             System.err.println("Error: " + e.getMessage());
             e.printStackTrace();
+            exitCode = 1;
         } finally {
             puller.shutdown();
         }
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+    
+    private static void printSummary(List<String> upToDate, List<String> updated, List<String> failed) {
+        System.out.println("\nSummary:");
+        System.out.println("  Up to date (skipped): " + (upToDate.isEmpty() ? "none" : String.join(", ", upToDate)));
+        System.out.println("  Updated: " + (updated.isEmpty() ? "none" : String.join(", ", updated)));
+        if (!failed.isEmpty()) {
+            System.out.println("  Failed: " + String.join(", ", failed));
+        }
+    }
+    
+    /**
+     * The images the options select from the catalog: every image for --all, those named and in
+     * the --group groups, all of them for the daemon, and otherwise the catalog's defaults, plus
+     * any --priority images. Null if a name or group is unknown.
+     */
+    private String[] selectImages(PullOptions options) {
+        List<String> namedImages = new ArrayList<>(options.getImages());
+        namedImages.addAll(options.getPriorityImages());
+        boolean unknown = false;
+        for (String imageName : namedImages) {
+            if (!catalog.contains(imageName)) {
+                System.err.println("Unknown image: " + imageName);
+                unknown = true;
+            }
+        }
+        Set<String> selected = new LinkedHashSet<>(options.getImages());
+        for (String group : options.getGroups()) {
+            List<String> members = catalog.group(group);
+            if (members.isEmpty()) {
+                System.err.println("Unknown group: " + group);
+                unknown = true;
+            }
+            selected.addAll(members);
+        }
+        if (unknown) {
+            System.out.println("\nAvailable images:");
+            catalog.getNames().forEach(name -> System.out.println("- " + name));
+            System.out.println("\nAvailable groups: " + String.join(", ", catalog.getGroups()));
+            return null;
+        }
+        
+        if (options.isAll() || (selected.isEmpty() && options.isDaemon())) {
+            // The daemon keeps every known image warm unless told otherwise
+            return catalog.getNames().toArray(new String[0]);
+        }
+        if (selected.isEmpty()) {
+            selected.addAll(catalog.getDefaultNames());
+        }
+        // A --priority image is pulled even when the names and groups leave it out
+        selected.addAll(options.getPriorityImages());
+        return selected.toArray(new String[0]);
+    }
+    
+    /**
+     * Scheduling priority per image: its catalog priority, except that the images named in
+     * --priority go above all of them, in the order given.
+     */
+    private Map<String, Integer> priorities(String[] imageNames, PullOptions options) {
+        Map<String, Integer> priorities = new HashMap<>();
+        int highest = AdaptiveScheduler.DEFAULT_PRIORITY;
+        for (String imageName : imageNames) {
+            int priority = catalog.get(imageName).getPriority();
+            priorities.put(imageName, priority);
+            highest = Math.max(highest, priority);
+        }
+        int base = highest;
+        options.getPriorities().forEach((imageName, rank) -> priorities.put(imageName, base + rank));
+        return priorities;
+    }
+    
+    /**
+     * The images whose catalog entry asks for a platform of its own.
+     */
+    private Map<String, Platform> platforms(String[] imageNames) {
+        Map<String, Platform> platforms = new HashMap<>();
+        for (String imageName : imageNames) {
+            Platform platform = catalog.get(imageName).getPlatform();
+            if (platform != null) {
+                platforms.put(imageName, platform);
+            }
+        }
+        return platforms;
+    }
+    
+    private String imageUri(String imageName) {
+        return catalog.get(imageName).getUri();
     }
     
     private static boolean isDockerRunning() {
@@ -191,19 +424,63 @@ public class EcrImagePuller {
         }
     }
     
-    private boolean authenticateEcr() {
+    /**
+     * Authenticates with every registry the images come from. {@code GetAuthorizationToken} is
+     * called at most once per region: its token is valid for every registry there that the
+     * credentials can read.
+     */
+    private boolean authenticateEcr(String[] imageNames, boolean dockerLogin) {
+        Set<String> registries = new LinkedHashSet<>();
+        for (String imageName : imageNames) {
+            registries.add(catalog.get(imageName).getReference().getRegistry());
+        }
+        try (PullMetrics.Phase phase = metrics.phase("auth")) {
+            Map<String, AuthorizationData> tokens = new HashMap<>();
+            for (String registry : registries) {
+                if (!authenticateRegistry(registry, dockerLogin, tokens)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    
+    private boolean authenticateRegistry(String registry, boolean dockerLogin, Map<String, AuthorizationData> tokens) {
         try {
-            GetAuthorizationTokenResponse response = ecrClient.getAuthorizationToken(
-                GetAuthorizationTokenRequest.builder().build()
-            );
+            // Reuse a cached token until shortly before it expires
+            String cacheKey = tokenCacheKey(registry);
+            EcrTokenCache.Entry cached = cacheKey != null ? tokenCache.get(cacheKey) : null;
+            String dockerConfig = EcrTokenCache.currentDockerConfig();
+            if (cached != null) {
+                registryLogins.put(registry, cached);
+                if (!dockerLogin || cached.isLoggedInTo(dockerConfig)) {
+                    System.out.println("Using cached ECR authorization token for " + registry + " (valid until "
+                        + cached.getExpiresAt() + ")");
+                    return true;
+                }
+                if (!dockerLogin(cached.getUsername(), cached.getPassword(), registry)) {
+                    return false;
+                }
+                tokenCache.put(cacheKey, cached.withDockerLogin(dockerConfig));
+                return true;
+            }
             
-            List<AuthorizationData> authDataList = response.authorizationData();
-            if (authDataList.isEmpty()) {
-                System.err.println("No authorization data received from ECR");
-                return false;
+            String region = EcrDigestResolver.region(registry);
+            AuthorizationData authData = tokens.get(region);
+            if (authData == null) {
+                GetAuthorizationTokenResponse response = ecrClient(region).getAuthorizationToken(
+                    GetAuthorizationTokenRequest.builder().build()
+                );
+                
+                List<AuthorizationData> authDataList = response.authorizationData();
+                if (authDataList.isEmpty()) {
+                    System.err.println("No authorization data received from ECR");
+                    return false;
+                }
+                authData = authDataList.get(0);
+                tokens.put(region, authData);
             }
             
-            AuthorizationData authData = authDataList.get(0);
             String authToken = authData.authorizationToken();
             String decodedToken = new String(Base64.getDecoder().decode(authToken), StandardCharsets.UTF_8);
             String[] parts = decodedToken.split(":");
@@ -215,88 +492,737 @@ public class EcrImagePuller {
             
             String username = parts[0];
             String password = parts[1];
+            EcrTokenCache.Entry login = new EcrTokenCache.Entry(username, password, authData.expiresAt(),
+                dockerLogin ? dockerConfig : null);
+            registryLogins.put(registry, login);
             
-            // Execute docker login command
-            ProcessBuilder processBuilder = new ProcessBuilder(
-                "docker", "login", "--username", username, "--password-stdin", DOCKER_REGISTRY
-            );
-            
-            Process process = processBuilder.start();
-            process.getOutputStream().write(password.getBytes(StandardCharsets.UTF_8));
-            process.getOutputStream().close();
-            
-            // Read the output
-            BufferedReader reader = new BufferedReader(new java.io.InputStreamReader(process.getInputStream()));
-            String line;
-            StringBuilder output = new StringBuilder();
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-            }
-            
-            int exitCode = process.waitFor();
-            if (exitCode == 0) {
-                System.out.println("Successfully authenticated with ECR");
-                return true;
-            } else {
-                System.err.println("Docker login failed: " + output);
+            if (dockerLogin && !dockerLogin(username, password, registry)) {
                 return false;
             }
+            if (cacheKey != null && authData.expiresAt() != null) {
+                tokenCache.put(cacheKey, login);
+            }
+            if (!dockerLogin) {
+                System.out.println("Successfully authenticated with ECR (" + registry + ")");
+            }
+            return true;
         } catch (Exception e) {
-            System.err.println("Error during ECR authentication: " + e.getMessage());
+            System.err.println("Error during ECR authentication for " + registry + ": " + e.getMessage());
             e.printStackTrace();
             return false;
         }
     }
     
-    private void pullImages(String[] imageNames) {
+    private String tokenCacheKey(String registry) {
+        try {
+            String accessKeyId = credentialsProvider().resolveCredentials().accessKeyId();
+            return EcrTokenCache.key(EcrDigestResolver.registryId(registry), EcrDigestResolver.region(registry), accessKeyId);
+        } catch (Exception e) {
+            // Without a credential identity the token cannot be attributed safely, so don't cache it
+            System.err.println("Not caching ECR token: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    private boolean dockerLogin(String username, String password, String registry) throws IOException, InterruptedException {
+        // Execute docker login command
+        ProcessBuilder processBuilder = new ProcessBuilder(
+            "docker", "login", "--username", username, "--password-stdin", registry
+        );
+        
+        Process process = processBuilder.start();
+        process.getOutputStream().write(password.getBytes(StandardCharsets.UTF_8));
+        process.getOutputStream().close();
+        
+        // Read the output
+        BufferedReader reader = new BufferedReader(new java.io.InputStreamReader(process.getInputStream()));
+        String line;
+        StringBuilder output = new StringBuilder();
+        while ((line = reader.readLine()) != null) {
+            output.append(line).append("\n");
+        }
+        
+        int exitCode = process.waitFor();
+        if (exitCode == 0) {
+            System.out.println("Successfully authenticated with ECR (" + registry + ")");
+            return true;
+        } else {
+            System.err.println("Docker login failed: " + output);
+            return false;
+        }
+    }
+    
+    /**
+     * Registry clients for every registry authenticated with, looked up by image.
+     */
+    private Function<ImageReference, RegistryClient> registryClients() {
+        Map<String, RegistryClient> clients = new HashMap<>();
+        registryLogins.forEach((registry, login) ->
+            clients.put(registry, new RegistryClient(registry, login.getUsername(), login.getPassword())));
+        return image -> clients.get(image.getRegistry());
+    }
+    
+    private String[] skipUpToDate(String[] imageNames, List<String> upToDate, PullOptions options) {
+        List<String> imageUris = new ArrayList<>();
+        for (String imageName : imageNames) {
+            imageUris.add(imageUri(imageName));
+        }
+        
+        // One BatchGetImage call per 100 tags of a repository, none for tags resolved within
+        // --resolve-ttl, and one docker inspect for all local images
+        Map<String, String> remoteDigests;
+        try (PullMetrics.Phase phase = metrics.phase("digest_check")) {
+            TagDigestCache tagCache = options.getResolveTtl().isZero() ? null
+                : TagDigestCache.load(BlobStore.defaultRoot(), options.getResolveTtl());
+            remoteDigests = new EcrDigestResolver(this::ecrClient, tagCache).resolve(imageUris);
+        } catch (Exception e) {
+            System.err.println("Could not check remote digests, pulling all images: " + e.getMessage());
+            return imageNames;
+        }
+        return skipUpToDate(imageNames, remoteDigests, upToDate);
+    }
+    
+    private String[] skipUpToDate(String[] imageNames, Map<String, String> remoteDigests, List<String> upToDate) {
+        List<String> imageUris = new ArrayList<>();
+        for (String imageName : imageNames) {
+            imageUris.add(imageUri(imageName));
+        }
+        Map<String, LocalImage> localImages;
+        try (PullMetrics.Phase phase = metrics.phase("inspect_local")) {
+            localImages = inspectLocalImages(imageUris);
+        }
+        
+        List<String> remaining = new ArrayList<>();
+        for (String imageName : imageNames) {
+            String imageUri = imageUri(imageName);
+            if (isUpToDate(imageUri, remoteDigests.get(imageUri), localImages.get(imageUri))) {
+                System.out.println("Image is up to date: " + imageName);
+                metrics.imageResult(imageName, "up_to_date", null);
+                upToDate.add(imageName);
+            } else {
+                remaining.add(imageName);
+            }
+        }
+        return remaining.toArray(new String[0]);
+    }
+    
+    private boolean isUpToDate(String imageUri, String remoteDigest, LocalImage localImage) {
+        if (remoteDigest == null || localImage == null) {
+            return false;
+        }
+        
+        // docker pull records the tag digest in RepoDigests
+        ImageReference reference = ImageReference.parse(imageUri);
+        String repoDigest = reference.getRegistry() + "/" + reference.getRepository() + "@" + remoteDigest;
+        if (localImage.repoDigests.contains(repoDigest)) {
+            return true;
+        }
+        
+        // docker load does not, so natively pulled images are matched through the recorded state
+        ImageStateStore state = getImageState();
+        return remoteDigest.equals(state.getDigest(imageUri)) && localImage.id.equals(state.getImageId(imageUri));
+    }
+    
+    private Map<String, LocalImage> inspectLocalImages(List<String> imageUris) {
+        Map<String, LocalImage> localImages = new HashMap<>();
+        if (dockerEngine != null) {
+            for (String imageUri : imageUris) {
+                try {
+                    Map<String, Object> inspect = dockerEngine.inspectImage(imageUri);
+                    if (inspect != null) {
+                        Set<String> repoDigests = new HashSet<>();
+                        for (Object repoDigest : Json.array(inspect.get("RepoDigests"))) {
+                            repoDigests.add(String.valueOf(repoDigest));
+                        }
+                        localImages.put(imageUri, new LocalImage(Json.string(inspect, "Id"), repoDigests));
+                    }
+                } catch (IOException | IllegalArgumentException e) {
+                    System.err.println("Could not inspect local image " + imageUri + ": " + e.getMessage());
+                }
+            }
+            return localImages;
+        }
+        
+        List<String> command = new ArrayList<>(List.of("docker", "image", "inspect", "--format",
+            "{{.Id}}\t{{json .RepoTags}}\t{{json .RepoDigests}}"));
+        command.addAll(imageUris);
+        
+        try {
+            Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            try (BufferedReader reader = new BufferedReader(
+                    new java.io.InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    if (fields.length != 3) {
+                        continue;
+                    }
+                    LocalImage localImage = new LocalImage(fields[0], new HashSet<>());
+                    for (Object repoDigest : Json.array(Json.parse(fields[2]))) {
+                        localImage.repoDigests.add(String.valueOf(repoDigest));
+                    }
+                    for (Object repoTag : Json.array(Json.parse(fields[1]))) {
+                        localImages.put(String.valueOf(repoTag), localImage);
+                    }
+                }
+            }
+            // A non-zero exit only means some of the images are not present locally
+            process.waitFor();
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not inspect local images: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return localImages;
+    }
+    
+    private synchronized ImageStateStore getImageState() {
+        if (imageState == null) {
+            imageState = ImageStateStore.load(BlobStore.defaultRoot());
+        }
+        return imageState;
+    }
+    
+    private List<String> pullImages(String[] imageNames, PullOptions options, Map<String, Integer> priorities) {
         System.out.println("Pulling " + imageNames.length + " Docker images...");
         
+        imageNames = orderForPull(imageNames, options, priorities);
+        long start = System.nanoTime();
+        PullDeadlines runDeadlines = deadlines;
+        List<String> pulled = Collections.synchronizedList(new ArrayList<>());
         CompletableFuture<?>[] futures = new CompletableFuture[imageNames.length];
         
         for (int i = 0; i < imageNames.length; i++) {
             final String imageName = imageNames[i];
-            futures[i] = CompletableFuture.runAsync(() -> {
-                String imageUri = IMAGE_URIS.get(imageName);
-                if (imageUri == null) {
+            int priority = priorities.getOrDefault(imageName, AdaptiveScheduler.DEFAULT_PRIORITY);
+            String registry = catalog.contains(imageName) ? catalog.get(imageName).getReference().getRegistry() : null;
+            futures[i] = scheduler.submit(() -> {
+                if (!catalog.contains(imageName)) {
                     System.err.println("Unknown image: " + imageName);
                     return;
                 }
+                ImageCatalog.Entry entry = catalog.get(imageName);
+                String imageUri = entry.getUri();
                 
-                try {
+                PullMetrics.ImageMetrics imageMetrics = metrics.image(imageName);
+                imageMetrics.setUri(imageUri);
+                // Interrupting the worker closes the Engine API socket or stops waiting for the CLI
+                PullDeadlines.Timeout timeout = PullDeadlines.interruptAt(runDeadlines.imageDeadline());
+                try (timeout; PullMetrics.Phase phase = metrics.phase("docker_pull")) {
                     System.out.println("Pulling image: " + imageName + " (" + imageUri + ")");
-                    ProcessBuilder processBuilder = new ProcessBuilder("docker", "pull", imageUri);
+                    if (dockerEngine != null) {
+                        DockerPullProgress progress = new DockerPullProgress(imageName, bytes -> {
+                            scheduler.recordBytes(bytes);
+                            metrics.recordBytes(bytes);
+                        });
+                        EcrTokenCache.Entry login = registryLogins.get(entry.getReference().getRegistry());
+                        dockerEngine.pullImage(entry.getReference(), entry.getPlatform(),
+                            login != null ? login.getUsername() : null, login != null ? login.getPassword() : null, progress);
+                        System.out.println("Successfully pulled image: " + imageName + " (" + formatBytes(progress.getTotalBytes())
+                            + " downloaded, " + progress.getReusedLayerCount() + " of " + progress.getLayerCount()
+                            + " layers already present)");
+                        imageMetrics.setTransfer(progress.getTotalBytes(), progress.getLayerCount(), progress.getReusedLayerCount());
+                        imageMetrics.setReadyMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        metrics.imageResult(imageName, "pulled", null);
+                        pulled.add(imageName);
+                        return;
+                    }
+                    
+                    List<String> command = new ArrayList<>(List.of("docker", "pull"));
+                    if (entry.getPlatform() != null) {
+                        command.addAll(List.of("--platform", entry.getPlatform().toString()));
+                    }
+                    command.add(imageUri);
+                    ProcessBuilder processBuilder = new ProcessBuilder(command);
                     processBuilder.inheritIO(); // Stream output to console
                     
                     Process process = processBuilder.start();
-                    int exitCode = process.waitFor();
+                    int exitCode;
+                    try {
+                        exitCode = process.waitFor();
+                    } catch (InterruptedException e) {
+                        process.destroy();
+                        throw e;
+                    }
                     
                     if (exitCode == 0) {
                         System.out.println("Successfully pulled image: " + imageName);
+                        imageMetrics.setReadyMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        metrics.imageResult(imageName, "pulled", null);
+                        pulled.add(imageName);
                     } else {
                         System.err.println("Failed to pull image: " + imageName);
+                        metrics.imageResult(imageName, "failed", "docker pull exited with code " + exitCode);
                     }
                 } catch (Exception e) {
-                    System.err.println("Error pulling image " + imageName + ": " + e.getMessage());
+                    String message = timeout.isExpired() ? "deadline exceeded" : e.getMessage();
+                    System.err.println("Error pulling image " + imageName + ": " + message);
+                    metrics.imageResult(imageName, "failed", message);
                 }
-            }, executorService);
+            }, priority, registry);
         }
         
         // Wait for all pulls to complete
         CompletableFuture.allOf(futures).join();
         System.out.println("All image pulls completed");
+        return pulled;
     }
     
-    private void shutdown() {
+    /**
+     * Orders images by --priority and then by compressed size, largest first, so the longest
+     * pull starts first instead of whenever it comes up on the command line. Sizes come from the
+     * manifests; if they cannot be read the original order is kept.
+     */
+    private String[] orderForPull(String[] imageNames, PullOptions options, Map<String, Integer> priorities) {
+        Map<String, String> imageUris = new LinkedHashMap<>();
+        for (String imageName : imageNames) {
+            imageUris.put(imageName, imageUri(imageName));
+        }
+        
+        Map<String, Long> sizes = new HashMap<>();
+        try (PullMetrics.Phase phase = metrics.phase("manifest_resolve")) {
+            NativePuller nativePuller = new NativePuller(registryClients(), new BlobStore(BlobStore.defaultRoot()),
+                options.getPlatform(), scheduler, new PullMetrics(), null);
+            for (PullPlan.PlannedImage image : nativePuller.plan(imageUris, Map.of(), platforms(imageNames)).getImages()) {
+                sizes.put(image.getName(), image.getManifest().totalLayerSize());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return imageNames;
+        }
+        
+        List<String> ordered = new ArrayList<>(imageUris.keySet());
+        ordered.sort(Comparator.comparingInt((String name) -> -priorities.getOrDefault(name, AdaptiveScheduler.DEFAULT_PRIORITY))
+            .thenComparingLong(name -> -sizes.getOrDefault(name, 0L)));
+        
+        StringBuilder order = new StringBuilder();
+        for (String imageName : ordered) {
+            order.append(order.length() > 0 ? ", " : "").append(imageName);
+            if (sizes.containsKey(imageName)) {
+                order.append(" (").append(formatBytes(sizes.get(imageName))).append(")");
+            }
+        }
+        System.out.println("Pull order: " + order);
+        return ordered.toArray(new String[0]);
+    }
+    
+    private List<String> pullImagesNative(String[] imageNames, PullOptions options, Map<String, Integer> priorities)
+            throws IOException, InterruptedException {
+        System.out.println("Pulling " + imageNames.length + " images with the native registry client...");
+        
+        BlobStore blobStore = new BlobStore(BlobStore.defaultRoot());
+        Map<String, String> imageUris = new LinkedHashMap<>();
+        for (String imageName : imageNames) {
+            imageUris.put(imageName, imageUri(imageName));
+        }
+        
+        NativePuller nativePuller = new NativePuller(registryClients(), blobStore, options.getPlatform(), scheduler, metrics,
+            peerClient);
+        
+        // Resolve every manifest first so layers shared between images are downloaded once
+        PullPlan plan;
+        try (PullMetrics.Phase phase = metrics.phase("manifest_resolve")) {
+            plan = nativePuller.plan(imageUris, priorities, platforms(imageNames));
+        }
+        for (PullPlan.PlannedImage image : plan.getImages()) {
+            long missingBytes = 0;
+            int reused = 0;
+            for (Descriptor layer : image.getManifest().getLayers()) {
+                if (blobStore.contains(layer.getDigest())) {
+                    reused++;
+                } else {
+                    missingBytes += Math.max(0, layer.getSize());
+                }
+            }
+            metrics.image(image.getName()).setTransfer(missingBytes, image.getManifest().getLayers().size(), reused);
+        }
+        System.out.println("Resolved " + plan.getImages().size() + " images: " + plan.getUniqueBlobCount()
+            + " unique blobs, " + formatBytes(plan.getUniqueBytes()) + " unique of "
+            + formatBytes(plan.getRequestedBytes()) + " referenced, " + formatBytes(plan.getMissingBytes())
+            + " to download");
+        
+        // Load each image as soon as its blobs are present so the first one is usable early;
+        // a single loader keeps docker load calls from competing with each other
+        List<String> updated = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService loader = Executors.newSingleThreadExecutor();
+        List<PulledImage> pulled;
+        try (PullMetrics.Phase phase = metrics.phase("download")) {
+            pulled = nativePuller.execute(plan, image -> {
+                System.out.println("Downloaded image: " + image.getName());
+                if (options.getOutput() == PullOptions.Output.DOCKER) {
+                    metrics.stage("load").enqueued();
+                    loader.execute(() -> loadPulledImage(image, blobStore, updated));
+                }
+            }, deadlines);
+        } finally {
+            loader.shutdown();
+            loader.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        plan.getFailures().forEach((imageName, message) -> {
+            System.err.println("Error pulling image " + imageName + ": " + message);
+            metrics.imageResult(imageName, "failed", message);
+        });
+        System.out.println("Downloaded " + formatBytes(scheduler.getTotalBytes()) + " with up to "
+            + scheduler.getPeakLimit() + " concurrent transfers");
+        
+        if (pulled.isEmpty()) {
+            System.err.println("No images were pulled");
+            return updated;
+        }
+        
+        if (options.getOutput() == PullOptions.Output.OCI) {
+            try (PullMetrics.Phase phase = metrics.phase("oci_write")) {
+                OciLayoutWriter.write(options.getOciDirectory(), pulled, blobStore);
+            }
+            System.out.println("Wrote " + pulled.size() + " images to OCI layout " + options.getOciDirectory());
+        } else if (options.getOutput() == PullOptions.Output.BUNDLE) {
+            try (PullMetrics.Phase phase = metrics.phase("export")) {
+                exportBundle(options.getExportFile(), pulled, blobStore);
+            }
+            System.out.println("Exported " + pulled.size() + " images to " + options.getExportFile() + " ("
+                + formatBytes(Files.size(options.getExportFile())) + ")");
+        }
+        if (options.getOutput() != PullOptions.Output.DOCKER) {
+            for (PulledImage image : pulled) {
+                metrics.imageResult(image.getName(), "pulled", null);
+                updated.add(image.getName());
+            }
+        }
+        System.out.println("All image pulls completed");
+        return updated;
+    }
+    
+    /**
+     * Writes the images as one OCI archive, gzip-compressed on all cores when the file name ends
+     * in .gz. The file only appears once it is complete.
+     */
+    private static void exportBundle(Path file, List<PulledImage> images, BlobStore blobStore) throws IOException {
+        Path target = file.toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
         try {
-            executorService.shutdown();
-            if (!executorService.awaitTermination(30, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
+            String name = target.getFileName().toString();
+            try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+                if (name.endsWith(".gz") || name.endsWith(".tgz")) {
+                    try (ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(out)) {
+                        OciArchiveWriter.write(gzip, images, blobStore);
+                    }
+                } else {
+                    // Uncompressed, blobs are copied file to file by the kernel
+                    OciArchiveWriter.write(out, images, blobStore);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    /**
+     * Streams a bundle into Docker as it is read, so nothing is unpacked or staged on disk
+     * first. Compressed bundles are passed through as-is; the daemon detects gzip itself.
+     */
+    private boolean importBundle(Path bundle) throws IOException, InterruptedException {
+        boolean fromStdin = bundle.toString().equals("-");
+        System.out.println("Importing " + (fromStdin ? "bundle from stdin" : bundle.toString()) + " into Docker...");
+        try (PullMetrics.Phase phase = metrics.phase("import")) {
+            if (dockerEngine != null) {
+                try (InputStream in = fromStdin ? System.in : Files.newInputStream(bundle)) {
+                    dockerEngine.loadImages(in::transferTo, event -> {
+                        if (event.getStream() != null && !event.getStream().isBlank()) {
+                            System.out.println(event.getStream().trim());
+                        }
+                    });
+                }
+                System.out.println("Bundle imported");
+                return true;
+            }
+            
+            ProcessBuilder processBuilder = new ProcessBuilder("docker", "load");
+            processBuilder.redirectInput(fromStdin ? ProcessBuilder.Redirect.INHERIT : ProcessBuilder.Redirect.from(bundle.toFile()));
+            processBuilder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+            processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            int exitCode = processBuilder.start().waitFor();
+            if (exitCode == 0) {
+                System.out.println("Bundle imported");
+                return true;
+            }
+            System.err.println("docker load failed with exit code " + exitCode);
+            return false;
+        } catch (IOException e) {
+            System.err.println("Error importing bundle " + bundle + ": " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private void loadPulledImage(PulledImage image, BlobStore blobStore, List<String> updated) {
+        PullMetrics.Stage stage = metrics.stage("load");
+        stage.dequeued();
+        long start = System.nanoTime();
+        try (PullMetrics.Phase phase = metrics.phase("load")) {
+            if (!loadIntoDocker(List.of(image), blobStore)) {
+                metrics.imageResult(image.getName(), "failed", "docker load failed");
+                return;
             }
+            long elapsed = System.nanoTime() - start;
+            stage.recordWork(image.getManifest().totalLayerSize(), elapsed);
+            metrics.image(image.getName()).setLoadMillis(TimeUnit.NANOSECONDS.toMillis(elapsed));
+            ImageStateStore state = getImageState();
+            state.recordPull(image.getReference().toString(), image.getTagDigest(), image.getImageId(),
+                image.getManifest().getDigest());
+            state.save();
+            metrics.imageResult(image.getName(), "pulled", null);
+            updated.add(image.getName());
+        } catch (IOException e) {
+            System.err.println("Error loading image " + image.getName() + ": " + e.getMessage());
+            metrics.imageResult(image.getName(), "failed", e.getMessage());
         } catch (InterruptedException e) {
-            executorService.shutdownNow();
             Thread.currentThread().interrupt();
         }
+    }
+    
+    private boolean loadIntoDocker(List<PulledImage> images, BlobStore blobStore) throws IOException, InterruptedException {
+        if (dockerEngine != null) {
+            dockerEngine.loadImages(out -> DockerArchiveWriter.write(out, images, blobStore), event -> {
+                if (event.getStream() != null && !event.getStream().isBlank()) {
+                    System.out.println(event.getStream().trim());
+                }
+            });
+            for (PulledImage image : images) {
+                System.out.println("Successfully pulled image: " + image.getName());
+            }
+            return true;
+        }
+        
+        // Stream the archive into docker load so it is never staged on disk
+        ProcessBuilder processBuilder = new ProcessBuilder("docker", "load");
+        processBuilder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        
+        Process process = processBuilder.start();
+        try (OutputStream stdin = process.getOutputStream()) {
+            DockerArchiveWriter.write(stdin, images, blobStore);
+        }
+        
+        int exitCode = process.waitFor();
+        if (exitCode == 0) {
+            for (PulledImage image : images) {
+                System.out.println("Successfully pulled image: " + image.getName());
+            }
+            return true;
+        }
+        System.err.println("docker load failed with exit code " + exitCode);
+        return false;
+    }
+    
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return (bytes / 1024) + " KB";
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+    
+    public AdaptiveScheduler getScheduler() {
+        return scheduler;
+    }
+    
+    public PullMetrics getMetrics() {
+        return metrics;
+    }
+    
+    private void writeReport(PullOptions options) {
+        try {
+            metrics.writeReport(options.getReportFile());
+            System.out.println("Pull report written to " + options.getReportFile());
+        } catch (IOException e) {
+            System.err.println("Could not write pull report " + options.getReportFile() + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Runs the prefetch daemon until the process is asked to stop. On SIGTERM or Ctrl+C the
+     * current poll is interrupted, the status file is marked stopped and the puller shuts down.
+     */
+    private void runDaemon(String[] imageNames, PullOptions options) throws IOException {
+        Map<String, String> imageUris = new LinkedHashMap<>();
+        for (String imageName : imageNames) {
+            imageUris.put(imageName, imageUri(imageName));
+        }
+        
+        // Polls always ask ECR; the poll interval is what bounds how stale a tag can be
+        EcrDigestResolver resolver = new EcrDigestResolver(this::ecrClient, null);
+        PrefetchDaemon daemon = new PrefetchDaemon(imageUris, uris -> {
+            try (PullMetrics.Phase phase = metrics.phase("poll")) {
+                return resolver.resolve(uris);
+            }
+        },
+            changed -> prefetch(changed, imageNames, options), options.getPollInterval(), options.getStatusFile());
+        if (options.getStatusPort() >= 0) {
+            HttpServer server = daemon.startStatusServer(options.getStatusPort(), metrics);
+            System.out.println("Serving daemon status at http://127.0.0.1:" + server.getAddress().getPort()
+                + "/status and metrics at /metrics");
+        }
+        
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Stopping prefetch daemon...");
+            daemon.stop();
+            try {
+                if (!daemon.awaitTermination(DAEMON_SHUTDOWN_TIMEOUT)) {
+                    System.err.println("Prefetch daemon did not stop within " + DAEMON_SHUTDOWN_TIMEOUT.getSeconds() + "s");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            shutdown();
+        }, "daemon-shutdown"));
+        
+        System.out.println("Watching " + imageUris.size() + " images for tag changes every "
+            + options.getPollInterval().getSeconds() + "s, status in " + options.getStatusFile());
+        daemon.run();
+    }
+    
+    private List<String> prefetch(Map<String, String> changedDigests, String[] watchedImages, PullOptions options)
+            throws IOException, InterruptedException {
+        boolean nativeEngine = options.getEngine() == PullOptions.Engine.NATIVE;
+        String[] imageNames = changedDigests.keySet().toArray(new String[0]);
+        List<String> ready = new ArrayList<>();
+        deadlines = PullDeadlines.start(options.getTimeout(), options.getImageTimeout());
+        
+        // Images a job already pulled at the new digest need no work
+        if (options.getOutput() == PullOptions.Output.DOCKER) {
+            Map<String, String> remoteDigests = new HashMap<>();
+            changedDigests.forEach((imageName, digest) -> remoteDigests.put(imageUri(imageName), digest));
+            imageNames = skipUpToDate(imageNames, remoteDigests, ready);
+        }
+        if (imageNames.length == 0) {
+            return ready;
+        }
         
-        ecrClient.close();
+        if (!authenticateEcr(imageNames, !nativeEngine && dockerEngine == null)) {
+            throw new IOException("Failed to authenticate with ECR");
+        }
+        // Background work yields to anything else queued on the scheduler
+        Map<String, Integer> priorities = new HashMap<>();
+        for (String imageName : imageNames) {
+            priorities.put(imageName, PrefetchDaemon.PREFETCH_PRIORITY);
+        }
+        try {
+            List<String> pulled = nativeEngine
+                ? pullImagesNative(imageNames, options, priorities)
+                : pullImages(imageNames, options, priorities);
+            if (!nativeEngine) {
+                recordDockerPulls(pulled, options);
+            }
+            ready.addAll(pulled);
+            // Everything the daemon watches is meant to stay warm
+            enforceDiskBudget(watchedImages, options);
+        } finally {
+            // One report per prefetch; the Prometheus counters keep accumulating
+            writeReport(options);
+            metrics.clearDetails();
+        }
+        return ready;
+    }
+    
+    /**
+     * {@code docker pull} leaves no state of its own, so record what it produced for eviction.
+     */
+    private void recordDockerPulls(List<String> imageNames, PullOptions options) {
+        if (imageNames.isEmpty() || options.getOutput() != PullOptions.Output.DOCKER) {
+            return;
+        }
+        List<String> imageUris = new ArrayList<>();
+        for (String imageName : imageNames) {
+            imageUris.add(imageUri(imageName));
+        }
+        Map<String, LocalImage> localImages = inspectLocalImages(imageUris);
+        ImageStateStore state = getImageState();
+        for (String imageUri : imageUris) {
+            LocalImage localImage = localImages.get(imageUri);
+            if (localImage == null) {
+                continue;
+            }
+            ImageReference reference = ImageReference.parse(imageUri);
+            String prefix = reference.getRegistry() + "/" + reference.getRepository() + "@";
+            String digest = localImage.repoDigests.stream()
+                .filter(repoDigest -> repoDigest.startsWith(prefix))
+                .map(repoDigest -> repoDigest.substring(prefix.length()))
+                .findFirst()
+                .orElse(null);
+            state.recordPull(imageUri, digest, localImage.id);
+        }
+        saveImageState();
+    }
+    
+    private void recordUse(List<String> imageNames, PullOptions options) {
+        if (imageNames.isEmpty() || options.getOutput() != PullOptions.Output.DOCKER) {
+            return;
+        }
+        ImageStateStore state = getImageState();
+        for (String imageName : imageNames) {
+            state.recordUse(imageUri(imageName));
+        }
+        saveImageState();
+    }
+    
+    private void saveImageState() {
+        try {
+            getImageState().save();
+        } catch (IOException e) {
+            System.err.println("Could not save image state: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Applies --disk-budget after a pull. The images just requested are protected.
+     */
+    private void enforceDiskBudget(String[] protectedImages, PullOptions options) {
+        if (options.getDiskBudget() < 0) {
+            return;
+        }
+        ImageEvictor.DockerImages docker = null;
+        if (options.getOutput() == PullOptions.Output.DOCKER) {
+            docker = dockerEngine != null ? ImageEvictor.engine(dockerEngine) : ImageEvictor.cli();
+        }
+        Set<String> protectedUris = new HashSet<>();
+        for (String imageName : protectedImages) {
+            protectedUris.add(imageUri(imageName));
+        }
+        try (PullMetrics.Phase phase = metrics.phase("evict")) {
+            new ImageEvictor(getImageState(), new BlobStore(BlobStore.defaultRoot()), docker, options.getDiskBudget())
+                .enforce(protectedUris);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not enforce the disk budget: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Serves the blob cache to other nodes and fetches from them, as the peer options ask. A
+     * port that cannot be bound only disables serving; pulls still work.
+     */
+    private void startPeerMode(PullOptions options) {
+        if (options.getPeerPort() >= 0) {
+            try {
+                peerServer = PeerServer.start(new BlobStore(BlobStore.defaultRoot()), options.getPeerPort());
+                System.out.println("Serving cached blobs to peers on port " + peerServer.getPort());
+            } catch (IOException e) {
+                System.err.println("Could not serve blobs to peers on port " + options.getPeerPort() + ": " + e.getMessage());
+            }
+        }
+        if (!options.getPeers().isEmpty() || options.getPeersFile() != null) {
+            peerClient = new PeerClient(options.getPeers(), options.getPeersFile());
+        }
+    }
+    
+    private synchronized void shutdown() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (peerServer != null) {
+            peerServer.close();
+        }
+        scheduler.close();
+        ecrClients.values().forEach(EcrClient::close);
     }
 } 
\ No newline at end of file
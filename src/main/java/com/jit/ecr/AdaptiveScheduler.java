@@ -0,0 +1,343 @@
+package com.jit.ecr;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs pull tasks with an in-flight limit that follows measured throughput (AIMD).
+ *
+ * <p>Every {@link #SAMPLE_INTERVAL_MILLIS} the aggregate byte rate is sampled. While tasks are
+ * queued and throughput keeps up, the limit grows by one; when throughput falls well below the
+ * best rate seen at a lower limit, or transfers fail, it is cut multiplicatively. The limit never
+ * leaves the {@link ConcurrencyLimits} floor and ceiling. Tasks that report no bytes (such as
+ * {@code docker pull} subprocesses) simply run at the current limit.
+ *
+ * <p>Queued tasks start in priority order, highest first, and in submission order within a
+ * priority, so callers control ordering by what they submit first.
+ *
+ * <p>With {@link ConcurrencyLimits#isVirtualThreads()} on Java 21+, every task starts at once on a
+ * virtual thread of its own and there is no adaptive limit. A task submitted for a registry host
+ * first waits for one of that host's {@link ConcurrencyLimits#getMax()} permits, so thousands of
+ * queued resolutions and downloads cost a parked virtual thread each instead of a platform
+ * thread. Blob writes are bounded per disk through {@link #diskPermits(Path)}.
+ */
+public class AdaptiveScheduler implements AutoCloseable {
+    public static final long SAMPLE_INTERVAL_MILLIS = 500;
+    public static final int DEFAULT_PRIORITY = 0;
+    private static final double DECREASE_FACTOR = 0.7;
+    private static final double SATURATION_RATIO = 0.8;
+
+    private final ConcurrencyLimits limits;
+    private final boolean virtual;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService sampler;
+    private final PriorityQueue<QueuedTask> queue = new PriorityQueue<>(
+        Comparator.comparingInt((QueuedTask task) -> -task.priority).thenComparingLong(task -> task.sequence));
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final Map<Object, Semaphore> diskPermits = new ConcurrentHashMap<>();
+
+    private long sequence;
+    private int limit;
+    private int inFlight;
+    private int peakLimit;
+    // Tasks holding a host permit, with virtual threads
+    private int running;
+    private long lastSampleBytes;
+    private long lastSampleNanos;
+    private double bestRate;
+    private int bestRateLimit;
+
+    private static final class QueuedTask {
+        private final int priority;
+        private final long sequence;
+        private final Runnable runnable;
+
+        private QueuedTask(int priority, long sequence, Runnable runnable) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+    }
+
+    public AdaptiveScheduler(ConcurrencyLimits limits) {
+        this.limits = limits;
+        this.virtual = limits.isVirtualThreads() && VirtualThreads.isSupported();
+        this.limit = virtual ? limits.getMax() : limits.getInitial();
+        this.peakLimit = virtual ? 0 : limit;
+        this.bandwidthLimiter = limits.getMaxBytesPerSecond() > 0 ? new BandwidthLimiter(limits.getMaxBytesPerSecond()) : null;
+        this.workers = virtual ? VirtualThreads.newPerTaskExecutor() : Executors.newCachedThreadPool(daemonThreads("pull-worker"));
+        this.sampler = Executors.newSingleThreadScheduledExecutor(daemonThreads("pull-scheduler"));
+        this.lastSampleNanos = System.nanoTime();
+        if (!virtual && limits.getMin() != limits.getMax()) {
+            sampler.scheduleAtFixedRate(this::adjust, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public ConcurrencyLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Whether tasks run on virtual threads: asked for in the limits and supported by this runtime.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * The executor for helper tasks of transfers, such as pipeline stages, when tasks run on
+     * virtual threads; null otherwise.
+     */
+    public ExecutorService getVirtualThreads() {
+        return virtual ? workers : null;
+    }
+
+    /**
+     * Permits for concurrent blob writes to the disk holding {@code directory} when tasks run on
+     * virtual threads; null otherwise.
+     */
+    public Semaphore diskPermits(Path directory) {
+        if (!virtual) {
+            return null;
+        }
+        Object disk;
+        try {
+            disk = Files.getFileStore(directory);
+        } catch (IOException e) {
+            disk = directory.toAbsolutePath();
+        }
+        return diskPermits.computeIfAbsent(disk, key -> new Semaphore(limits.getDiskConcurrency(), true));
+    }
+
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        return submit(task, DEFAULT_PRIORITY);
+    }
+
+    public <T> CompletableFuture<T> submit(Callable<T> task, int priority) {
+        return submit(task, priority, null);
+    }
+
+    /**
+     * Like {@link #submit(Callable, int)} for a task that talks to registry {@code host}; with
+     * virtual threads it runs once the host has a permit free. Null stands for any other work.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task, int priority, String host) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Semaphore permits = virtual ? hostPermits.computeIfAbsent(host != null ? host : "",
+            key -> new Semaphore(limits.getMax(), true)) : null;
+        synchronized (this) {
+            queue.add(new QueuedTask(priority, sequence++, () -> {
+                boolean acquired = false;
+                try {
+                    if (permits != null) {
+                        permits.acquire();
+                        acquired = true;
+                        started();
+                    }
+                    future.complete(task.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    if (acquired) {
+                        stopped();
+                        permits.release();
+                    }
+                    finished();
+                }
+            }));
+        }
+        dispatch();
+        return future;
+    }
+
+    public CompletableFuture<Void> submit(Runnable task) {
+        return submit(task, DEFAULT_PRIORITY);
+    }
+
+    public CompletableFuture<Void> submit(Runnable task, int priority) {
+        return submit(task, priority, null);
+    }
+
+    public CompletableFuture<Void> submit(Runnable task, int priority, String host) {
+        return submit(() -> {
+            task.run();
+            return null;
+        }, priority, host);
+    }
+
+    /**
+     * Wraps a download stream so its bytes feed the throughput measurement and the bandwidth cap.
+     */
+    public InputStream meter(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    account(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    account(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    private void account(int read) throws InterruptedIOException {
+        bytes.addAndGet(read);
+        if (bandwidthLimiter != null) {
+            try {
+                bandwidthLimiter.acquire(read);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+    }
+
+    /**
+     * Counts bytes transferred outside a metered stream, e.g. reported by the Docker daemon.
+     */
+    public void recordBytes(long count) {
+        bytes.addAndGet(count);
+    }
+
+    /**
+     * Signals a failed or throttled transfer, which backs the limit off at the next sample.
+     */
+    public void recordFailure() {
+        failures.incrementAndGet();
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getPeakLimit() {
+        return peakLimit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public long getTotalBytes() {
+        return bytes.get();
+    }
+
+    private void dispatch() {
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                if ((!virtual && inFlight >= limit) || queue.isEmpty()) {
+                    return;
+                }
+                next = queue.poll().runnable;
+                inFlight++;
+            }
+            workers.execute(next);
+        }
+    }
+
+    private synchronized void started() {
+        running++;
+        peakLimit = Math.max(peakLimit, running);
+    }
+
+    private synchronized void stopped() {
+        running--;
+    }
+
+    private void finished() {
+        synchronized (this) {
+            inFlight--;
+        }
+        dispatch();
+    }
+
+    void adjust() {
+        long now = System.nanoTime();
+        long total = bytes.get();
+        int failed = failures.getAndSet(0);
+        synchronized (this) {
+            double rate = (total - lastSampleBytes) * 1e9 / Math.max(1, now - lastSampleNanos);
+            lastSampleBytes = total;
+            lastSampleNanos = now;
+
+            if (failed > 0) {
+                decrease();
+            } else if (rate > 0) {
+                if (rate > bestRate) {
+                    bestRate = rate;
+                    bestRateLimit = limit;
+                }
+                if (limit > bestRateLimit && rate < bestRate * SATURATION_RATIO) {
+                    // More connections made things worse: the link or the registry is saturated
+                    decrease();
+                } else if (!queue.isEmpty() && limit < limits.getMax()) {
+                    limit++;
+                    peakLimit = Math.max(peakLimit, limit);
+                }
+            }
+        }
+        dispatch();
+    }
+
+    private void decrease() {
+        limit = Math.max(limits.getMin(), (int) (limit * DECREASE_FACTOR));
+        // Forget the old optimum so the limit can probe upwards again
+        bestRate = 0;
+        bestRateLimit = limit;
+    }
+
+    @Override
+    public void close() {
+        sampler.shutdownNow();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
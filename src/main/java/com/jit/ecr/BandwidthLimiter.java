@@ -0,0 +1,37 @@
+package com.jit.ecr;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket shared by all downloads on this host. Readers take tokens after each read and
+ * sleep off any debt, so the aggregate rate converges on the cap without a dedicated thread.
+ */
+public class BandwidthLimiter {
+    private final long bytesPerSecond;
+    private double available;
+    private long lastRefill;
+
+    public BandwidthLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.available = bytesPerSecond;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public void acquire(int bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            available = Math.min(bytesPerSecond, available + (now - lastRefill) * bytesPerSecond / 1e9);
+            lastRefill = now;
+            available -= bytes;
+            waitNanos = available >= 0 ? 0 : (long) (-available * 1e9 / bytesPerSecond);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
@@ -0,0 +1,384 @@
+package com.jit.ecr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Downloads blobs into a {@link BlobStore} through its partial-file area. A dropped connection
+ * keeps the bytes received so far, and the next attempt asks the registry for the rest with a
+ * {@code Range} request, so a retry only costs the missing bytes. Reading, hashing and writing
+ * overlap through a {@link BlobPipeline}.
+ *
+ * <p>With a {@link PeerClient}, peers that advertise a blob are tried before the registry. A
+ * peer that fails part way leaves its bytes in the partial file for the next peer or the
+ * registry to continue from; the digest is checked on commit either way.
+ *
+ * <p>Every connection is watched by a {@link TransferMonitor}. When a registry transfer stalls,
+ * a hedged request for the rest of the blob starts on a second connection and whichever of the
+ * two reaches the end first is kept. A connection that goes silent is aborted and retried after
+ * a jittered exponential backoff.
+ */
+public class BlobDownloader {
+    public static final int MAX_ATTEMPTS = 5;
+    private static final long INITIAL_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private static final ExecutorService HEDGES = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "blob-hedge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Function<ImageReference, RegistryClient> registries;
+    private final BlobStore blobStore;
+    private final AdaptiveScheduler scheduler;
+    private final PullMetrics metrics;
+    private final BlobPipeline pipeline;
+    private final PeerClient peers;
+
+    public BlobDownloader(RegistryClient registryClient, BlobStore blobStore, AdaptiveScheduler scheduler) {
+        this(registryClient, blobStore, scheduler, new PullMetrics());
+    }
+
+    public BlobDownloader(RegistryClient registryClient, BlobStore blobStore, AdaptiveScheduler scheduler, PullMetrics metrics) {
+        this(registryClient, blobStore, scheduler, metrics, null);
+    }
+
+    public BlobDownloader(RegistryClient registryClient, BlobStore blobStore, AdaptiveScheduler scheduler, PullMetrics metrics,
+            PeerClient peers) {
+        this(image -> registryClient, blobStore, scheduler, metrics, peers);
+    }
+
+    /**
+     * Like the other constructors, for blobs of images in several registries: {@code registries}
+     * returns the client for an image's registry, or null if there is none.
+     */
+    public BlobDownloader(Function<ImageReference, RegistryClient> registries, BlobStore blobStore,
+            AdaptiveScheduler scheduler, PullMetrics metrics, PeerClient peers) {
+        this.registries = registries;
+        this.blobStore = blobStore;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.pipeline = scheduler.isVirtual()
+            ? new BlobPipeline(metrics, scheduler.getVirtualThreads(), scheduler.diskPermits(blobStore.getRoot()))
+            : new BlobPipeline(metrics);
+        this.peers = peers;
+    }
+
+    public void download(ImageReference source, Descriptor descriptor) throws IOException, InterruptedException {
+        String digest = descriptor.getDigest();
+        try (BlobStore.PartialBlob partial = blobStore.openPartial(digest)) {
+            if (partial.isCommitted()) {
+                return;
+            }
+            if (descriptor.getSize() >= 0 && partial.size() > descriptor.getSize()) {
+                partial.reset();
+            }
+
+            PullMetrics.BlobMetrics blobMetrics = metrics.blobStarted(digest, descriptor.getSize(), partial.size());
+            if (peers != null && fetchFromPeers(descriptor, partial, blobMetrics)) {
+                metrics.blobFinished(blobMetrics, null);
+                return;
+            }
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    fetch(source, descriptor, partial, blobMetrics);
+                    partial.commit();
+                    metrics.blobFinished(blobMetrics, null);
+                    return;
+                } catch (IOException e) {
+                    scheduler.recordFailure();
+                    if (attempt >= MAX_ATTEMPTS || Thread.currentThread().isInterrupted() || PullDeadlines.isExpired()) {
+                        metrics.blobFinished(blobMetrics, e.getMessage());
+                        throw e;
+                    }
+                    System.out.println("Retrying blob " + digest + " from byte " + partial.size()
+                        + " after: " + e.getMessage());
+                    Thread.sleep(backoffMillis(attempt));
+                }
+            }
+        }
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half the delay is fixed, half random, so blobs that
+     * failed together do not all retry in the same instant.
+     */
+    static long backoffMillis(int attempt) {
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempt - 1, 20));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * A monitor whose stall threshold leaves room for --max-bandwidth: a capped link shared by
+     * many connections must not look stalled.
+     */
+    private TransferMonitor monitor() {
+        long minBytesPerSecond = TransferMonitor.DEFAULT_MIN_BYTES_PER_SECOND;
+        long cap = scheduler.getLimits().getMaxBytesPerSecond();
+        if (cap > 0) {
+            minBytesPerSecond = Math.min(minBytesPerSecond, cap / Math.max(1, scheduler.getLimit()) / 4);
+        }
+        return new TransferMonitor(minBytesPerSecond, TransferMonitor.DEFAULT_WINDOW, TransferMonitor.DEFAULT_IDLE_TIMEOUT);
+    }
+
+    private void fetch(ImageReference source, Descriptor descriptor, BlobStore.PartialBlob partial,
+            PullMetrics.BlobMetrics blobMetrics) throws IOException, InterruptedException {
+        if (descriptor.getSize() >= 0 && partial.size() == descriptor.getSize()) {
+            // Everything arrived last time; only the commit was missing
+            return;
+        }
+        long requested = System.nanoTime();
+        RegistryClient.BlobResponse response = RegistryClient.forImage(registries, source).openBlob(source, descriptor.getDigest(), partial.size());
+        metrics.blobAttempt(blobMetrics, System.nanoTime() - requested);
+        if (response.getOffset() != partial.size()) {
+            partial.reset();
+        }
+        long before = partial.size();
+        TransferMonitor monitor = monitor();
+        try (Hedge hedge = new Hedge(source, descriptor, blobMetrics, monitor)) {
+            IOException failure = null;
+            // Without a size there is no telling which transfer got to the end, so no hedging
+            try (TransferMonitor.Transfer in = monitor.watch(scheduler.meter(response.getBody()),
+                    descriptor.getSize() < 0 ? null : primary -> hedge.start(primary, before + primary.getBytesRead()))) {
+                PullDeadlines.closeOnExpiry(() -> in.abort("deadline exceeded"));
+                pipeline.append(partial, in);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                metrics.blobBytes(blobMetrics, partial.size() - before);
+            }
+            if (!hedge.isStarted() || (failure == null && partial.size() == descriptor.getSize())) {
+                if (failure != null) {
+                    throw failure;
+                }
+                // Closing the hedge cancels it if it is still running
+                return;
+            }
+
+            // The hedge finished first and stopped the primary, or the primary gave out on its own.
+            // Past the deadline there is no point waiting for the hedge either.
+            if (partial.size() < hedge.getStart() || (failure != null && PullDeadlines.isExpired())) {
+                throw failure != null ? failure : new IOException("Transfer ended early at byte " + partial.size());
+            }
+            try {
+                hedge.await();
+            } catch (IOException e) {
+                if (failure == null) {
+                    throw e;
+                }
+                failure.addSuppressed(e);
+                throw failure;
+            }
+            try (InputStream rest = hedge.openFrom(partial.size())) {
+                pipeline.append(partial, rest);
+            }
+            metrics.blobHedgeWon(blobMetrics);
+        }
+    }
+
+    /**
+     * A duplicate request for the rest of a stalled blob on a second connection, spooled to a
+     * side file next to the partial. If it reaches the end first it stops the primary transfer,
+     * whose partial file is then completed from the side file; if it fails the primary is
+     * stopped too, so the download resumes on a fresh request.
+     */
+    private final class Hedge implements AutoCloseable {
+        private final ImageReference source;
+        private final Descriptor descriptor;
+        private final PullMetrics.BlobMetrics blobMetrics;
+        private final TransferMonitor monitor;
+        private final Path file;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private long start = -1;
+        private Future<?> task;
+        private Thread runner;
+        private TransferMonitor.Transfer transfer;
+        private boolean cancelled;
+
+        private Hedge(ImageReference source, Descriptor descriptor, PullMetrics.BlobMetrics blobMetrics,
+                TransferMonitor monitor) {
+            this.source = source;
+            this.descriptor = descriptor;
+            this.blobMetrics = blobMetrics;
+            this.monitor = monitor;
+            Path partialPath = blobStore.partialPath(descriptor.getDigest());
+            this.file = partialPath.resolveSibling(partialPath.getFileName() + ".hedge");
+        }
+
+        /**
+         * Called by the monitor thread when the primary stalls with {@code offset} bytes read.
+         */
+        private synchronized void start(TransferMonitor.Transfer primary, long offset) {
+            if (task != null || cancelled) {
+                return;
+            }
+            start = offset;
+            System.out.println("Blob " + descriptor.getDigest() + " stalled at byte " + offset
+                + ", hedging the rest on a second connection");
+            metrics.blobHedged(blobMetrics);
+            task = HEDGES.submit(() -> {
+                try {
+                    synchronized (this) {
+                        if (cancelled) {
+                            return null;
+                        }
+                        runner = Thread.currentThread();
+                    }
+                    run(primary);
+                } catch (IOException | InterruptedException e) {
+                    if (!isCancelled()) {
+                        primary.abort("stalled, and the hedged request failed: " + e.getMessage());
+                    }
+                    throw e;
+                } finally {
+                    synchronized (this) {
+                        runner = null;
+                    }
+                    done.countDown();
+                }
+                return null;
+            });
+        }
+
+        private void run(TransferMonitor.Transfer primary) throws IOException, InterruptedException {
+            RegistryClient.BlobResponse response = RegistryClient.forImage(registries, source).openBlobOnSecondConnection(source, descriptor.getDigest(), start);
+            // A hedge that stalls as well gives up, and the download resumes on a fresh request
+            TransferMonitor.Transfer in = monitor.watch(scheduler.meter(response.getBody()),
+                hedged -> hedged.abort("the hedged request stalled too"));
+            synchronized (this) {
+                if (cancelled) {
+                    in.close();
+                    return;
+                }
+                transfer = in;
+            }
+            long expected = descriptor.getSize() - start;
+            try (in; OutputStream out = Files.newOutputStream(file)) {
+                if (response.getOffset() != start) {
+                    throw new IOException("the registry ignored the range request");
+                }
+                long copied = in.transferTo(out);
+                if (copied != expected) {
+                    throw new IOException("it ended after " + copied + " of " + expected + " bytes");
+                }
+            } finally {
+                metrics.blobBytes(blobMetrics, in.getBytesRead());
+            }
+            primary.abort("the hedged request finished first");
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        private synchronized boolean isStarted() {
+            return task != null;
+        }
+
+        private synchronized long getStart() {
+            return start;
+        }
+
+        private void await() throws IOException, InterruptedException {
+            Future<?> running;
+            synchronized (this) {
+                running = task;
+            }
+            try {
+                running.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException
+                    ? (IOException) e.getCause()
+                    : new IOException("Hedged request failed", e.getCause());
+            }
+        }
+
+        /**
+         * The hedged bytes from blob position {@code position} on.
+         */
+        private InputStream openFrom(long position) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            return Channels.newInputStream(channel.position(position - start));
+        }
+
+        @Override
+        public void close() throws IOException {
+            boolean started;
+            synchronized (this) {
+                cancelled = true;
+                started = task != null;
+                if (transfer != null) {
+                    transfer.abort("the primary transfer finished first");
+                }
+                if (runner != null) {
+                    // Stops a request that is still waiting for its response headers
+                    runner.interrupt();
+                }
+            }
+            if (!started) {
+                return;
+            }
+            // The side file must not be recreated after it is deleted
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Tries each peer that advertises the blob. Returns true once the blob is committed, false
+     * if no peer could supply it.
+     */
+    private boolean fetchFromPeers(Descriptor descriptor, BlobStore.PartialBlob partial,
+            PullMetrics.BlobMetrics blobMetrics) throws InterruptedException {
+        String digest = descriptor.getDigest();
+        for (URI peer : peers.peersWith(digest)) {
+            try {
+                if (descriptor.getSize() < 0 || partial.size() < descriptor.getSize()) {
+                    RegistryClient.BlobResponse response = peers.openBlob(peer, digest, partial.size());
+                    if (response.getOffset() != partial.size()) {
+                        partial.reset();
+                    }
+                    long before = partial.size();
+                    try (TransferMonitor.Transfer in = monitor().watch(scheduler.meter(response.getBody()), null)) {
+                        PullDeadlines.closeOnExpiry(() -> in.abort("deadline exceeded"));
+                        pipeline.append(partial, in);
+                    } finally {
+                        metrics.blobPeerBytes(blobMetrics, peer.toString(), partial.size() - before);
+                    }
+                }
+                partial.commit();
+                return true;
+            } catch (IOException e) {
+                System.out.println("Peer " + peer + " could not supply blob " + digest + ": " + e.getMessage());
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,222 @@
+package com.jit.ecr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves a blob from the network into its partial file in three stages connected by bounded
+ * queues: the calling thread reads from the connection, a second thread hashes and a third
+ * writes to disk, so the next read overlaps hashing and writing the previous chunk.
+ *
+ * <p>Each blob gets a fixed pool of buffers. When hashing or the disk falls behind, the reader
+ * runs out of buffers and stops reading, which pushes back on the connection instead of
+ * buffering the blob in memory.
+ */
+public class BlobPipeline {
+    public static final int BUFFER_SIZE = 64 * 1024;
+    public static final int BUFFERS_PER_BLOB = 8;
+    public static final String DOWNLOAD_STAGE = "download";
+    public static final String HASH_STAGE = "hash";
+    public static final String WRITE_STAGE = "write";
+
+    private static final ExecutorService STAGES = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "blob-pipeline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExecutorService stages;
+    private final Semaphore diskPermits;
+    private final PullMetrics.Stage download;
+    private final PullMetrics.Stage hash;
+    private final PullMetrics.Stage write;
+
+    public BlobPipeline(PullMetrics metrics) {
+        this(metrics, STAGES, null);
+    }
+
+    /**
+     * A pipeline whose hash and write stages run on {@code stages}. With {@code diskPermits},
+     * every chunk write holds a permit, bounding the writes in flight on that disk across blobs.
+     */
+    public BlobPipeline(PullMetrics metrics, ExecutorService stages, Semaphore diskPermits) {
+        this.stages = stages;
+        this.diskPermits = diskPermits;
+        this.download = metrics.stage(DOWNLOAD_STAGE);
+        this.hash = metrics.stage(HASH_STAGE);
+        this.write = metrics.stage(WRITE_STAGE);
+    }
+
+    private static final class Chunk {
+        private final byte[] data;
+        private int length;
+
+        private Chunk(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private static final Chunk END = new Chunk(new byte[0]);
+
+    /**
+     * Appends {@code content} to {@code partial}. As with {@link BlobStore.PartialBlob#append},
+     * everything read before a failure is on disk when this returns, so the download can resume.
+     */
+    public void append(BlobStore.PartialBlob partial, InputStream content) throws IOException {
+        BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(BUFFERS_PER_BLOB);
+        for (int i = 0; i < BUFFERS_PER_BLOB; i++) {
+            free.add(new Chunk(new byte[BUFFER_SIZE]));
+        }
+        // Room for every buffer plus the end marker, so handing on never blocks
+        BlockingQueue<Chunk> toHash = new ArrayBlockingQueue<>(BUFFERS_PER_BLOB + 1);
+        BlockingQueue<Chunk> toWrite = new ArrayBlockingQueue<>(BUFFERS_PER_BLOB + 1);
+
+        Future<?> hashing = stages.submit(() -> {
+            try {
+                Chunk chunk;
+                while ((chunk = take(toHash, hash)) != END) {
+                    long start = System.nanoTime();
+                    partial.hash(chunk.data, chunk.length);
+                    hash.recordWork(chunk.length, System.nanoTime() - start);
+                    write.enqueued();
+                    toWrite.add(chunk);
+                }
+            } finally {
+                toWrite.add(END);
+            }
+            return null;
+        });
+        Future<?> writing = stages.submit(() -> {
+            Chunk chunk;
+            while ((chunk = take(toWrite, write)) != END) {
+                if (diskPermits != null) {
+                    // Waiting for the disk counts as waiting, not as work
+                    long waitStart = System.nanoTime();
+                    diskPermits.acquire();
+                    write.recordWait(System.nanoTime() - waitStart);
+                }
+                long start = System.nanoTime();
+                try {
+                    partial.write(chunk.data, chunk.length);
+                } finally {
+                    if (diskPermits != null) {
+                        diskPermits.release();
+                    }
+                }
+                write.recordWork(chunk.length, System.nanoTime() - start);
+                free.add(chunk);
+            }
+            return null;
+        });
+
+        IOException readFailure = null;
+        try {
+            Chunk chunk;
+            while ((chunk = nextBuffer(free, hashing, writing)) != null) {
+                long start = System.nanoTime();
+                int read = content.read(chunk.data);
+                if (read == -1) {
+                    break;
+                }
+                chunk.length = read;
+                download.recordWork(read, System.nanoTime() - start);
+                hash.enqueued();
+                toHash.add(chunk);
+            }
+        } catch (IOException e) {
+            readFailure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            readFailure = new InterruptedIOException("Interrupted while downloading " + partial.getDigest());
+        } finally {
+            toHash.add(END);
+        }
+
+        IOException stageFailure = awaitStages(hashing, writing);
+        if (stageFailure != null) {
+            // Chunks stranded by the failed stage no longer count as queued
+            discard(toHash, hash);
+            discard(toWrite, write);
+            // The hash may have run ahead of what reached the disk, so the partial can't be trusted
+            partial.reset();
+            throw stageFailure;
+        }
+        if (readFailure != null) {
+            throw readFailure;
+        }
+    }
+
+    /**
+     * Waits for a free buffer, or returns null if a stage died and will never hand one back.
+     */
+    private Chunk nextBuffer(BlockingQueue<Chunk> free, Future<?> hashing, Future<?> writing) throws InterruptedException {
+        long waitStart = System.nanoTime();
+        try {
+            Chunk chunk = null;
+            while (chunk == null && !hashing.isDone() && !writing.isDone()) {
+                chunk = free.poll(100, TimeUnit.MILLISECONDS);
+            }
+            return chunk;
+        } finally {
+            download.recordWait(System.nanoTime() - waitStart);
+        }
+    }
+
+    private static Chunk take(BlockingQueue<Chunk> queue, PullMetrics.Stage stage) throws InterruptedException {
+        long waitStart = System.nanoTime();
+        Chunk chunk = queue.take();
+        stage.recordWait(System.nanoTime() - waitStart);
+        if (chunk != END) {
+            stage.dequeued();
+        }
+        return chunk;
+    }
+
+    private static void discard(BlockingQueue<Chunk> queue, PullMetrics.Stage stage) {
+        for (Chunk chunk : queue) {
+            if (chunk != END) {
+                stage.dequeued();
+            }
+        }
+        queue.clear();
+    }
+
+    /**
+     * Waits for both stages, even when interrupted: they finish promptly once the end marker is
+     * through, and the partial file must not be closed under them.
+     */
+    private static IOException awaitStages(Future<?> hashing, Future<?> writing) {
+        boolean interrupted = false;
+        IOException failure = null;
+        for (Future<?> stage : new Future<?>[] {hashing, writing}) {
+            while (true) {
+                try {
+                    stage.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause()
+                            : new IOException("Blob pipeline failed", e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return failure;
+    }
+}
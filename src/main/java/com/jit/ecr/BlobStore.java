@@ -0,0 +1,386 @@
+package com.jit.ecr;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local content-addressable store for manifests, configs and layers, laid out as
+ * {@code <root>/blobs/sha256/<hex>} so it can double as the blob directory of an OCI layout.
+ * Interrupted downloads are kept under {@code <root>/partial/<hex>} so they can be resumed.
+ */
+public class BlobStore {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path root;
+    private final Set<FileStore> noHardLinks = ConcurrentHashMap.newKeySet();
+    private final Set<FileStore> noReflinks = ConcurrentHashMap.newKeySet();
+
+    public BlobStore(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * {@code $ECR_PULLER_CACHE} if set, otherwise {@code ~/.cache/ecr-image-puller}.
+     */
+    public static Path defaultRoot() {
+        String override = System.getenv("ECR_PULLER_CACHE");
+        if (override != null && !override.isEmpty()) {
+            return Paths.get(override);
+        }
+        return Paths.get(System.getProperty("user.home"), ".cache", "ecr-image-puller");
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public Path path(String digest) {
+        return root.resolve("blobs").resolve("sha256").resolve(Digests.hex(digest));
+    }
+
+    public Path partialPath(String digest) {
+        return root.resolve("partial").resolve(Digests.hex(digest));
+    }
+
+    public boolean contains(String digest) {
+        return Files.isRegularFile(path(digest));
+    }
+
+    public long size(String digest) throws IOException {
+        return Files.size(path(digest));
+    }
+
+    /**
+     * Streams content into the store, hashing as it goes. The blob only becomes visible under
+     * its digest once the hash matches; a mismatch leaves nothing behind.
+     */
+    public Path write(String digest, InputStream content) throws IOException {
+        Path target = path(digest);
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), Digests.hex(digest), ".tmp");
+        try {
+            MessageDigest sha256 = Digests.newSha256();
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = content.read(buffer)) != -1) {
+                    sha256.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            }
+            String actual = Digests.format(sha256.digest());
+            if (!actual.equals(digest)) {
+                throw new IOException("Digest mismatch: expected " + digest + " but received " + actual);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            seal(target);
+            return target;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public Path write(byte[] content) throws IOException {
+        String digest = Digests.sha256(content);
+        if (contains(digest)) {
+            return path(digest);
+        }
+        return write(digest, new ByteArrayInputStream(content));
+    }
+
+    /**
+     * Committed blobs are made read-only, since {@link #materialize} may hand out hard links that
+     * share the file with the store.
+     */
+    private static void seal(Path blob) {
+        blob.toFile().setWritable(false, false);
+    }
+
+    /**
+     * Places a blob at {@code target} without copying its bytes where the file system allows:
+     * a hard link when both paths share a volume, otherwise a reflink (copy-on-write clone) on
+     * Linux, and only then a kernel-side copy. Targets that already exist are left alone.
+     */
+    public void materialize(String digest, Path target) throws IOException {
+        if (Files.exists(target)) {
+            return;
+        }
+        Path source = path(digest);
+        Path directory = target.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        FileStore volume = Files.getFileStore(directory);
+
+        if (!noHardLinks.contains(volume)) {
+            try {
+                Files.createLink(target, source);
+                return;
+            } catch (FileAlreadyExistsException e) {
+                return;
+            } catch (UnsupportedOperationException | IOException e) {
+                // Different volume or no hard link support; don't try again on this one
+                noHardLinks.add(volume);
+            }
+        }
+
+        Path temp = Files.createTempFile(directory, Digests.hex(digest), ".tmp");
+        try {
+            if (noReflinks.contains(volume) || !reflink(source, temp)) {
+                noReflinks.add(volume);
+                try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                     FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long size = in.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static boolean reflink(Path source, Path target) throws IOException {
+        if (!System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux")) {
+            return false;
+        }
+        Process process = new ProcessBuilder("cp", "--reflink=always", source.toString(), target.toString())
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        try {
+            return process.waitFor() == 0;
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while cloning " + source);
+        }
+    }
+
+    /**
+     * Digests of all committed blobs.
+     */
+    public List<String> list() throws IOException {
+        Path directory = root.resolve("blobs").resolve("sha256");
+        List<String> digests = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return digests;
+        }
+        try (DirectoryStream<Path> blobs = Files.newDirectoryStream(directory)) {
+            for (Path blob : blobs) {
+                String name = blob.getFileName().toString();
+                if (name.length() == 64) {
+                    digests.add("sha256:" + name);
+                }
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * Bytes used by committed blobs and partial downloads.
+     */
+    public long totalSize() throws IOException {
+        long total = 0;
+        for (Path directory : List.of(root.resolve("blobs").resolve("sha256"), root.resolve("partial"))) {
+            if (!Files.isDirectory(directory)) {
+                continue;
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    try {
+                        total += Files.size(file);
+                    } catch (NoSuchFileException e) {
+                        // Committed or deleted while we were counting
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Removes a committed blob. Hard links handed out by {@link #materialize} keep their copy.
+     */
+    public boolean delete(String digest) throws IOException {
+        Path blob = path(digest);
+        // Read-only files cannot be deleted on Windows
+        blob.toFile().setWritable(true, true);
+        return Files.deleteIfExists(blob);
+    }
+
+    public InputStream open(String digest) throws IOException {
+        return Files.newInputStream(path(digest));
+    }
+
+    public byte[] read(String digest) throws IOException {
+        return Files.readAllBytes(path(digest));
+    }
+
+    /**
+     * Opens, or creates, the partial file of a blob and locks it against other processes
+     * pulling the same digest. Bytes already on disk are hashed once so the download can
+     * continue from where it stopped.
+     */
+    public PartialBlob openPartial(String digest) throws IOException {
+        Path partial = partialPath(digest);
+        Files.createDirectories(partial.getParent());
+        FileChannel channel = FileChannel.open(partial,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.lock();
+            return new PartialBlob(digest, partial, channel, lock);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * A blob being downloaded. Appended bytes are hashed as they are written, and
+     * {@link #commit()} moves the file into the store only when the digest matches.
+     */
+    public final class PartialBlob implements Closeable {
+        private final String digest;
+        private final Path path;
+        private final FileChannel channel;
+        private final FileLock lock;
+        private final MessageDigest sha256 = Digests.newSha256();
+        private long size;
+
+        private PartialBlob(String digest, Path path, FileChannel channel, FileLock lock) throws IOException {
+            this.digest = digest;
+            this.path = path;
+            this.channel = channel;
+            this.lock = lock;
+            if (!contains(digest)) {
+                hashExisting();
+            }
+        }
+
+        private void hashExisting() throws IOException {
+            // Direct buffer: the digest reads it in place instead of copying through the heap
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long length = channel.size();
+            channel.position(0);
+            while (size < length) {
+                buffer.clear();
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                buffer.flip();
+                sha256.update(buffer);
+                size += read;
+            }
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        /**
+         * Bytes already downloaded, i.e. the offset to resume from.
+         */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * Whether another process committed the blob while we waited for the lock.
+         */
+        public boolean isCommitted() {
+            return contains(digest);
+        }
+
+        /**
+         * Appends a stream that continues at {@link #size()}. Whatever was read before an
+         * exception stays on disk for the next attempt.
+         */
+        public void append(InputStream content) throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                hash(buffer, read);
+                write(buffer, read);
+            }
+        }
+
+        /**
+         * Hashing and writing are separate so {@link BlobPipeline} can run them as stages; every
+         * chunk must go through both, in the same order.
+         */
+        void hash(byte[] buffer, int length) {
+            sha256.update(buffer, 0, length);
+        }
+
+        void write(byte[] buffer, int length) throws IOException {
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, length);
+            while (chunk.hasRemaining()) {
+                channel.write(chunk, size + chunk.position());
+            }
+            size += length;
+        }
+
+        /**
+         * Discards the downloaded bytes, e.g. when the server ignored a range request.
+         */
+        public void reset() throws IOException {
+            channel.truncate(0);
+            sha256.reset();
+            size = 0;
+        }
+
+        /**
+         * Publishes the blob under its digest. On a mismatch the partial data is discarded so
+         * the next attempt starts from scratch.
+         */
+        public Path commit() throws IOException {
+            String actual = Digests.format(sha256.digest());
+            if (!actual.equals(digest)) {
+                reset();
+                throw new IOException("Digest mismatch: expected " + digest + " but received " + actual);
+            }
+            Path target = path(digest);
+            Files.createDirectories(target.getParent());
+            channel.force(false);
+            Files.move(path, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            seal(target);
+            return target;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (lock.isValid()) {
+                    lock.release();
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
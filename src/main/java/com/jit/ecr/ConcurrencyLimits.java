@@ -0,0 +1,155 @@
+package com.jit.ecr;
+
+import java.util.Locale;
+
+/**
+ * Bounds for the {@link AdaptiveScheduler}: the floor and ceiling for in-flight transfers, the
+ * starting point, and an optional cap on total download bandwidth (0 means unlimited).
+ *
+ * <p>With virtual threads every task gets a thread of its own; the ceiling then bounds the
+ * transfers per registry host and {@link #getDiskConcurrency()} the blob writes per disk.
+ */
+public final class ConcurrencyLimits {
+    public static final int DEFAULT_MIN = 2;
+    public static final int DEFAULT_INITIAL = 4;
+    public static final int DEFAULT_MAX_CAP = 64;
+    public static final int DEFAULT_DISK_CONCURRENCY = 8;
+
+    private final int min;
+    private final int max;
+    private final int initial;
+    private final long maxBytesPerSecond;
+    private final boolean virtualThreads;
+    private final int diskConcurrency;
+
+    public ConcurrencyLimits(int min, int max, int initial, long maxBytesPerSecond) {
+        this(min, max, initial, maxBytesPerSecond, false, DEFAULT_DISK_CONCURRENCY);
+    }
+
+    private ConcurrencyLimits(int min, int max, int initial, long maxBytesPerSecond, boolean virtualThreads,
+            int diskConcurrency) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("Invalid concurrency limits: min " + min + ", max " + max);
+        }
+        if (maxBytesPerSecond < 0) {
+            throw new IllegalArgumentException("Bandwidth cap must not be negative");
+        }
+        if (diskConcurrency < 1) {
+            throw new IllegalArgumentException("Invalid disk concurrency: " + diskConcurrency);
+        }
+        this.min = min;
+        this.max = max;
+        this.initial = Math.max(min, Math.min(max, initial));
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.virtualThreads = virtualThreads;
+        this.diskConcurrency = diskConcurrency;
+    }
+
+    /**
+     * Starts at 4 in-flight transfers like the old fixed pool and may grow to four per core.
+     */
+    public static ConcurrencyLimits defaults() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int max = Math.max(8, Math.min(DEFAULT_MAX_CAP, cores * 4));
+        return new ConcurrencyLimits(DEFAULT_MIN, max, DEFAULT_INITIAL, 0);
+    }
+
+    public static ConcurrencyLimits fixed(int concurrency) {
+        return new ConcurrencyLimits(concurrency, concurrency, concurrency, 0);
+    }
+
+    /**
+     * A fixed number of concurrent transfers, keeping the other settings of these limits.
+     */
+    public ConcurrencyLimits withFixed(int concurrency) {
+        return new ConcurrencyLimits(concurrency, concurrency, concurrency, maxBytesPerSecond, virtualThreads, diskConcurrency);
+    }
+
+    public ConcurrencyLimits withMin(int newMin) {
+        return new ConcurrencyLimits(newMin, Math.max(newMin, max), initial, maxBytesPerSecond, virtualThreads,
+            diskConcurrency);
+    }
+
+    public ConcurrencyLimits withMax(int newMax) {
+        return new ConcurrencyLimits(Math.min(min, newMax), newMax, initial, maxBytesPerSecond, virtualThreads,
+            diskConcurrency);
+    }
+
+    public ConcurrencyLimits withMaxBytesPerSecond(long newMaxBytesPerSecond) {
+        return new ConcurrencyLimits(min, max, initial, newMaxBytesPerSecond, virtualThreads, diskConcurrency);
+    }
+
+    /**
+     * Runs each task on a virtual thread (Java 21+) instead of a pooled platform thread.
+     */
+    public ConcurrencyLimits withVirtualThreads(boolean newVirtualThreads) {
+        return new ConcurrencyLimits(min, max, initial, maxBytesPerSecond, newVirtualThreads, diskConcurrency);
+    }
+
+    public ConcurrencyLimits withDiskConcurrency(int newDiskConcurrency) {
+        return new ConcurrencyLimits(min, max, initial, maxBytesPerSecond, virtualThreads, newDiskConcurrency);
+    }
+
+    /**
+     * Parses a byte rate such as {@code 500K}, {@code 50M} or {@code 1G} (per second, powers of 1024).
+     */
+    public static long parseBytesPerSecond(String value) {
+        String normalized = value.trim().toUpperCase(Locale.ROOT);
+        if (normalized.endsWith("/S")) {
+            normalized = normalized.substring(0, normalized.length() - 2);
+        }
+        if (normalized.endsWith("B")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        long multiplier = 1;
+        char unit = normalized.isEmpty() ? ' ' : normalized.charAt(normalized.length() - 1);
+        switch (unit) {
+            case 'K': multiplier = 1024L; break;
+            case 'M': multiplier = 1024L * 1024; break;
+            case 'G': multiplier = 1024L * 1024 * 1024; break;
+            default: break;
+        }
+        if (multiplier > 1) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        try {
+            return (long) (Double.parseDouble(normalized) * multiplier);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid bandwidth: " + value);
+        }
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public int getInitial() {
+        return initial;
+    }
+
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Blob writes in flight per disk, with virtual threads.
+     */
+    public int getDiskConcurrency() {
+        return diskConcurrency;
+    }
+
+    @Override
+    public String toString() {
+        return min + ".." + max + " (start " + initial + ")"
+            + (maxBytesPerSecond > 0 ? ", capped at " + maxBytesPerSecond + " B/s" : "")
+            + (virtualThreads ? ", virtual threads, " + diskConcurrency + " writes per disk" : "");
+    }
+}
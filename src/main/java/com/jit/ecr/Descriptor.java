@@ -0,0 +1,66 @@
+package com.jit.ecr;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * OCI content descriptor: a media type, a digest and a size, plus the platform for index entries.
+ */
+public final class Descriptor {
+    private final String mediaType;
+    private final String digest;
+    private final long size;
+    private final Platform platform;
+
+    public Descriptor(String mediaType, String digest, long size, Platform platform) {
+        this.mediaType = mediaType;
+        this.digest = digest;
+        this.size = size;
+        this.platform = platform;
+    }
+
+    public static Descriptor fromJson(Map<String, Object> json) {
+        return new Descriptor(
+            Json.string(json, "mediaType"),
+            Json.string(json, "digest"),
+            Json.number(json, "size", -1),
+            Platform.fromJson(Json.object(json.get("platform")))
+        );
+    }
+
+    public Map<String, Object> toJson() {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("mediaType", mediaType);
+        json.put("digest", digest);
+        json.put("size", size);
+        return json;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public Platform getPlatform() {
+        return platform;
+    }
+
+    /**
+     * The hex part of the digest, used for file names in archives and layouts.
+     */
+    public String getHex() {
+        return Digests.hex(digest);
+    }
+
+    @Override
+    public String toString() {
+        return digest + " (" + size + " bytes)";
+    }
+}
@@ -0,0 +1,53 @@
+package com.jit.ecr;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helpers for {@code sha256:<hex>} content digests.
+ */
+public final class Digests {
+    private static final String SHA256_PREFIX = "sha256:";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Digests() {
+    }
+
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public static String sha256(byte[] content) {
+        return format(newSha256().digest(content));
+    }
+
+    public static String format(byte[] hash) {
+        char[] out = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            out[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            out[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return SHA256_PREFIX + new String(out);
+    }
+
+    public static String hex(String digest) {
+        validate(digest);
+        return digest.substring(SHA256_PREFIX.length());
+    }
+
+    public static void validate(String digest) {
+        if (digest == null || !digest.startsWith(SHA256_PREFIX) || digest.length() != SHA256_PREFIX.length() + 64) {
+            throw new IllegalArgumentException("Unsupported digest: " + digest);
+        }
+        for (int i = SHA256_PREFIX.length(); i < digest.length(); i++) {
+            char c = digest.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                throw new IllegalArgumentException("Unsupported digest: " + digest);
+            }
+        }
+    }
+}
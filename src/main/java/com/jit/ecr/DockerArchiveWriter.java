@@ -0,0 +1,62 @@
+package com.jit.ecr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes pulled images as a {@code docker save} style archive that {@code docker load} accepts.
+ * Layers are stored compressed exactly as downloaded; the daemon decompresses them on load.
+ */
+public final class DockerArchiveWriter {
+    private DockerArchiveWriter() {
+    }
+
+    public static void write(OutputStream out, List<PulledImage> images, BlobStore store) throws IOException {
+        TarWriter tar = new TarWriter(out);
+        Set<String> written = new HashSet<>();
+        List<Object> manifestJson = new ArrayList<>();
+
+        for (PulledImage image : images) {
+            Manifest manifest = image.getManifest();
+            Descriptor config = manifest.getConfig();
+            String configName = config.getHex() + ".json";
+            if (written.add(configName)) {
+                tar.addFile(configName, store.read(config.getDigest()));
+            }
+
+            List<Object> layerNames = new ArrayList<>();
+            for (Descriptor layer : manifest.getLayers()) {
+                String layerName = layer.getHex() + "/layer.tar";
+                if (written.add(layerName)) {
+                    tar.addDirectory(layer.getHex());
+                    tar.addFile(layerName, store.path(layer.getDigest()));
+                }
+                layerNames.add(layerName);
+            }
+
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("Config", configName);
+            entry.put("RepoTags", repoTags(image.getReference()));
+            entry.put("Layers", layerNames);
+            manifestJson.add(entry);
+        }
+
+        tar.addFile("manifest.json", Json.writeBytes(manifestJson));
+        tar.finish();
+    }
+
+    /**
+     * The names {@code docker load} tags the image with. Docker rejects digests here, so an image
+     * pinned by digest alone is loaded untagged.
+     */
+    static List<Object> repoTags(ImageReference reference) {
+        String taggedName = reference.taggedName();
+        return taggedName != null ? List.of(taggedName) : List.of();
+    }
+}
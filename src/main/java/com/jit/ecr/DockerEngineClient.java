@@ -0,0 +1,467 @@
+package com.jit.ecr;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Minimal Docker Engine API client over the daemon's unix socket, used instead of forking the
+ * {@code docker} CLI for ping, image inspect, pull, load, disk usage and image removal.
+ *
+ * <p>Unix domain socket channels need Java 16+. The project targets Java 11, so they are looked
+ * up reflectively; on older runtimes {@link #connect()} returns null and callers fall back to the CLI.
+ */
+public class DockerEngineClient {
+    public static final Path DEFAULT_SOCKET = Paths.get("/var/run/docker.sock");
+    private static final String API_VERSION = "v1.41";
+
+    private static final ProtocolFamily UNIX_FAMILY;
+    private static final Method OPEN_CHANNEL;
+    private static final Method ADDRESS_OF;
+
+    static {
+        ProtocolFamily family = null;
+        Method open = null;
+        Method addressOf = null;
+        try {
+            family = StandardProtocolFamily.valueOf("UNIX");
+            open = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            // Pre-16 runtime: no unix domain socket support
+        }
+        UNIX_FAMILY = family;
+        OPEN_CHANNEL = open;
+        ADDRESS_OF = addressOf;
+    }
+
+    private final Path socket;
+
+    public DockerEngineClient(Path socket) {
+        this.socket = socket;
+    }
+
+    public static boolean isSupported() {
+        return ADDRESS_OF != null;
+    }
+
+    /**
+     * Returns a client for {@code $DOCKER_HOST} (if it is a {@code unix://} URL) or the default
+     * socket, or null if this runtime or host cannot talk to the daemon over a unix socket.
+     */
+    public static DockerEngineClient connect() {
+        if (!isSupported()) {
+            return null;
+        }
+        Path socket = DEFAULT_SOCKET;
+        String dockerHost = System.getenv("DOCKER_HOST");
+        if (dockerHost != null && !dockerHost.isEmpty()) {
+            if (!dockerHost.startsWith("unix://")) {
+                return null;
+            }
+            socket = Paths.get(dockerHost.substring("unix://".length()));
+        }
+        return Files.exists(socket) ? new DockerEngineClient(socket) : null;
+    }
+
+    public Path getSocket() {
+        return socket;
+    }
+
+    public boolean ping() {
+        try (Response response = request("GET", "/_ping", null, null)) {
+            return response.status == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the {@code /images/{name}/json} document, or null if the image is not present.
+     */
+    public Map<String, Object> inspectImage(String name) throws IOException {
+        try (Response response = request("GET", "/images/" + name + "/json", null, null)) {
+            if (response.status == 404) {
+                return null;
+            }
+            byte[] body = response.body.readAllBytes();
+            if (response.status != 200) {
+                throw new IOException("Image inspect failed for " + name + " (HTTP " + response.status + "): "
+                    + new String(body, StandardCharsets.UTF_8).trim());
+            }
+            return Json.parseObject(body);
+        }
+    }
+
+    /**
+     * Bytes used by all image layers on the host, from {@code GET /system/df}.
+     */
+    public long layersSize() throws IOException {
+        try (Response response = request("GET", "/system/df", null, null)) {
+            byte[] body = response.body.readAllBytes();
+            if (response.status != 200) {
+                throw new IOException("Disk usage query failed (HTTP " + response.status + "): "
+                    + new String(body, StandardCharsets.UTF_8).trim());
+            }
+            return Json.number(Json.parseObject(body), "LayersSize", 0);
+        }
+    }
+
+    /**
+     * Removes a tag or image ID; the image itself goes once nothing else refers to it. Returns
+     * false if a container still uses the image or another tag shares it.
+     */
+    public boolean removeImage(String name) throws IOException {
+        try (Response response = request("DELETE", "/images/" + name, null, null)) {
+            byte[] body = response.body.readAllBytes();
+            if (response.status == 200 || response.status == 404) {
+                return true;
+            }
+            if (response.status == 409) {
+                return false;
+            }
+            throw new IOException("Image removal failed for " + name + " (HTTP " + response.status + "): "
+                + new String(body, StandardCharsets.UTF_8).trim());
+        }
+    }
+
+    /**
+     * Pulls an image through the daemon, passing the registry credentials in {@code X-Registry-Auth}
+     * so no {@code docker login} is needed. Progress messages are delivered as they stream in.
+     */
+    public void pullImage(ImageReference image, String username, String password, Consumer<DockerProgressEvent> listener)
+            throws IOException {
+        pullImage(image, null, username, password, listener);
+    }
+
+    /**
+     * Like {@link #pullImage(ImageReference, String, String, Consumer)}, selecting {@code platform}
+     * from multi-arch images; null leaves the choice to the daemon.
+     */
+    public void pullImage(ImageReference image, Platform platform, String username, String password,
+            Consumer<DockerProgressEvent> listener) throws IOException {
+        String path = "/images/create?fromImage=" + encode(image.getRegistry() + "/" + image.getRepository())
+            + "&tag=" + encode(image.reference());
+        if (platform != null) {
+            path += "&platform=" + encode(platform.toString());
+        }
+        Map<String, String> headers = new LinkedHashMap<>();
+        if (username != null) {
+            headers.put("X-Registry-Auth", registryAuth(username, password, image.getRegistry()));
+        }
+        try (Response response = request("POST", path, headers, null)) {
+            readProgress(response, "pull " + image, listener);
+        }
+    }
+
+    /**
+     * Streams a {@code docker save} style archive into {@code POST /images/load}.
+     */
+    public void loadImages(ArchiveWriter archive, Consumer<DockerProgressEvent> listener) throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "application/x-tar");
+        try (Response response = request("POST", "/images/load", headers, archive)) {
+            readProgress(response, "load", listener);
+        }
+    }
+
+    /**
+     * Produces a request body; the stream is chunk-encoded so the size need not be known.
+     */
+    public interface ArchiveWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    static String registryAuth(String username, String password, String serverAddress) {
+        Map<String, Object> auth = new LinkedHashMap<>();
+        auth.put("username", username);
+        auth.put("password", password);
+        auth.put("serveraddress", serverAddress);
+        return Base64.getUrlEncoder().encodeToString(Json.writeBytes(auth));
+    }
+
+    private static void readProgress(Response response, String action, Consumer<DockerProgressEvent> listener)
+            throws IOException {
+        if (response.status != 200) {
+            throw new IOException("Docker " + action + " failed (HTTP " + response.status + "): "
+                + new String(response.body.readAllBytes(), StandardCharsets.UTF_8).trim());
+        }
+        String line;
+        while ((line = readLine(response.body)) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            DockerProgressEvent event = DockerProgressEvent.fromJson(Json.parseObject(line.getBytes(StandardCharsets.UTF_8)));
+            if (event.isError()) {
+                throw new IOException("Docker " + action + " failed: " + event.getError());
+            }
+            listener.accept(event);
+        }
+    }
+
+    private Response request(String method, String path, Map<String, String> headers, ArchiveWriter body)
+            throws IOException {
+        SocketChannel channel = open();
+        try {
+            OutputStream out = Channels.newOutputStream(channel);
+            StringBuilder head = new StringBuilder()
+                .append(method).append(' ').append('/').append(API_VERSION).append(path).append(" HTTP/1.1\r\n")
+                .append("Host: docker\r\n")
+                .append("Connection: close\r\n");
+            if (headers != null) {
+                headers.forEach((name, value) -> head.append(name).append(": ").append(value).append("\r\n"));
+            }
+            head.append(body != null ? "Transfer-Encoding: chunked\r\n" : "Content-Length: 0\r\n").append("\r\n");
+            out.write(head.toString().getBytes(StandardCharsets.UTF_8));
+            if (body != null) {
+                ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+                body.writeTo(chunked);
+                chunked.finish();
+            }
+            out.flush();
+
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024);
+            return Response.read(channel, in);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private SocketChannel open() throws IOException {
+        try {
+            SocketChannel channel = (SocketChannel) OPEN_CHANNEL.invoke(null, UNIX_FAMILY);
+            channel.connect((SocketAddress) ADDRESS_OF.invoke(null, socket.toString()));
+            return channel;
+        } catch (ReflectiveOperationException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Cannot connect to " + socket + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static final class Response implements AutoCloseable {
+        private final SocketChannel channel;
+        private final int status;
+        private final InputStream body;
+
+        private Response(SocketChannel channel, int status, InputStream body) {
+            this.channel = channel;
+            this.status = status;
+            this.body = body;
+        }
+
+        static Response read(SocketChannel channel, InputStream in) throws IOException {
+            String statusLine = readLine(in);
+            if (statusLine == null || !statusLine.startsWith("HTTP/1.")) {
+                throw new IOException("Invalid response from Docker daemon: " + statusLine);
+            }
+            // "HTTP/1.1 200 OK": the reason phrase is optional, the three-digit code is not
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[1].matches("\\d{3}")) {
+                throw new IOException("Malformed status line: " + statusLine);
+            }
+            int status = Integer.parseInt(parts[1]);
+
+            Map<String, String> headers = new LinkedHashMap<>();
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+                }
+            }
+
+            InputStream body = in;
+            if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+                body = new ChunkedInputStream(in);
+            } else if (headers.containsKey("content-length")) {
+                body = new BoundedInputStream(in, Long.parseLong(headers.get("content-length")));
+            }
+            return new Response(channel, status, body);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class ChunkedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+        private boolean done;
+
+        ChunkedInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (done) {
+                return -1;
+            }
+            if (remaining == 0) {
+                String size = readLine(in);
+                if (size == null) {
+                    throw new IOException("Truncated chunked response");
+                }
+                int extension = size.indexOf(';');
+                remaining = Long.parseLong((extension >= 0 ? size.substring(0, extension) : size).trim(), 16);
+                if (remaining == 0) {
+                    // Trailer section ends with an empty line
+                    String trailer;
+                    while ((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+                        continue;
+                    }
+                    done = true;
+                    return -1;
+                }
+            }
+            int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read == -1) {
+                throw new IOException("Truncated chunked response");
+            }
+            remaining -= read;
+            if (remaining == 0) {
+                readLine(in);
+            }
+            return read;
+        }
+    }
+
+    private static final class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+
+    private static final class ChunkedOutputStream extends FilterOutputStream {
+        private static final int CHUNK_SIZE = 64 * 1024;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count;
+
+        ChunkedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int copied = Math.min(length, buffer.length - count);
+                System.arraycopy(data, offset, buffer, count, copied);
+                count += copied;
+                offset += copied;
+                length -= copied;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            out.write((Integer.toHexString(count) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(buffer, 0, count);
+            out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            count = 0;
+        }
+
+        void finish() throws IOException {
+            flushChunk();
+            out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            // The connection stays open for the response; finish() ends the body
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.jit.ecr;
+
+import java.util.Map;
+
+/**
+ * One message from the JSON progress stream of {@code POST /images/create} or {@code /images/load}.
+ * Layer events carry the short layer ID and, while downloading or extracting, byte counts.
+ */
+public final class DockerProgressEvent {
+    private final String id;
+    private final String status;
+    private final long current;
+    private final long total;
+    private final String error;
+    private final String stream;
+
+    public DockerProgressEvent(String id, String status, long current, long total, String error, String stream) {
+        this.id = id;
+        this.status = status;
+        this.current = current;
+        this.total = total;
+        this.error = error;
+        this.stream = stream;
+    }
+
+    public static DockerProgressEvent fromJson(Map<String, Object> json) {
+        Map<String, Object> detail = Json.object(json.get("progressDetail"));
+        String error = Json.string(json, "error");
+        if (error == null) {
+            error = Json.string(Json.object(json.get("errorDetail")), "message");
+        }
+        return new DockerProgressEvent(
+            Json.string(json, "id"),
+            Json.string(json, "status"),
+            Json.number(detail, "current", -1),
+            Json.number(detail, "total", -1),
+            error,
+            Json.string(json, "stream")
+        );
+    }
+
+    /**
+     * The layer this event is about, or null for image-level messages.
+     */
+    public String getId() {
+        return id;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public long getCurrent() {
+        return current;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public String getStream() {
+        return stream;
+    }
+
+    public boolean isError() {
+        return error != null;
+    }
+
+    public boolean isDownloading() {
+        return "Downloading".equals(status);
+    }
+
+    /**
+     * A status that ends a layer's lifecycle, e.g. "Pull complete" or "Already exists".
+     */
+    public boolean isLayerDone() {
+        return id != null && ("Pull complete".equals(status) || "Already exists".equals(status));
+    }
+
+    @Override
+    public String toString() {
+        if (error != null) {
+            return "error: " + error;
+        }
+        if (stream != null) {
+            return stream.trim();
+        }
+        return (id != null ? id + ": " : "") + status + (total > 0 ? " " + current + "/" + total : "");
+    }
+}
@@ -0,0 +1,68 @@
+package com.jit.ecr;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Turns the daemon's pull progress stream into per-layer state and real byte counts. Byte deltas
+ * are forwarded as they arrive so the scheduler can measure throughput of daemon pulls too.
+ */
+public class DockerPullProgress implements Consumer<DockerProgressEvent> {
+    private final String imageName;
+    private final LongConsumer bytesListener;
+    private final Map<String, Long> downloaded = new HashMap<>();
+    private final Set<String> layers = new LinkedHashSet<>();
+    private final Set<String> reused = new LinkedHashSet<>();
+    private long totalBytes;
+
+    public DockerPullProgress(String imageName, LongConsumer bytesListener) {
+        this.imageName = imageName;
+        this.bytesListener = bytesListener;
+    }
+
+    @Override
+    public synchronized void accept(DockerProgressEvent event) {
+        String id = event.getId();
+        // "Pulling from <repo>" carries the tag as its ID rather than a layer
+        if (id == null || event.getStatus() == null || event.getStatus().startsWith("Pulling from")) {
+            if (event.getStatus() != null && event.getStatus().startsWith("Status:")) {
+                System.out.println(imageName + ": " + event.getStatus());
+            }
+            return;
+        }
+        layers.add(id);
+
+        if (event.isDownloading() && event.getCurrent() >= 0) {
+            long previous = downloaded.getOrDefault(id, 0L);
+            long delta = event.getCurrent() - previous;
+            if (delta > 0) {
+                downloaded.put(id, event.getCurrent());
+                totalBytes += delta;
+                bytesListener.accept(delta);
+            }
+        } else if ("Already exists".equals(event.getStatus())) {
+            reused.add(id);
+        }
+
+        if (event.isLayerDone()) {
+            System.out.println(imageName + ": layer " + id + " " + event.getStatus().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getLayerCount() {
+        return layers.size();
+    }
+
+    public synchronized int getReusedLayerCount() {
+        return reused.size();
+    }
+}
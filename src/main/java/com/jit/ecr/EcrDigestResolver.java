@@ -0,0 +1,163 @@
+package com.jit.ecr;
+
+import software.amazon.awssdk.services.ecr.EcrClient;
+import software.amazon.awssdk.services.ecr.model.BatchGetImageRequest;
+import software.amazon.awssdk.services.ecr.model.BatchGetImageResponse;
+import software.amazon.awssdk.services.ecr.model.Image;
+import software.amazon.awssdk.services.ecr.model.ImageFailure;
+import software.amazon.awssdk.services.ecr.model.ImageIdentifier;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Resolves image tags to their current manifest digests with batched ECR {@code BatchGetImage}
+ * calls: one call per repository and up to {@value #MAX_BATCH_SIZE} tags, instead of one
+ * registry round-trip per image. Images may be spread over registries in several regions; the
+ * batches of different repositories run concurrently, each against the client for its region.
+ *
+ * <p>With a {@link TagDigestCache}, tags resolved within its TTL are not looked up again.
+ */
+public class EcrDigestResolver {
+    public static final int MAX_BATCH_SIZE = 100;
+    private static final int THREADS = 8;
+
+    private static final ExecutorService BATCHES = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "ecr-resolve");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Function<String, EcrClient> ecrClients;
+    private final TagDigestCache cache;
+
+    public EcrDigestResolver(EcrClient ecrClient) {
+        this(region -> ecrClient, null);
+    }
+
+    /**
+     * A resolver that calls {@code ecrClients} for the client of each region it needs. The cache
+     * may be null.
+     */
+    public EcrDigestResolver(Function<String, EcrClient> ecrClients, TagDigestCache cache) {
+        this.ecrClients = ecrClients;
+        this.cache = cache;
+    }
+
+    /**
+     * The ECR registry ID (AWS account) from a host like {@code 123456789012.dkr.ecr.us-east-1.amazonaws.com}.
+     */
+    public static String registryId(String registry) {
+        int dot = registry.indexOf(".dkr.ecr.");
+        if (dot <= 0) {
+            throw new IllegalArgumentException("Not an ECR registry: " + registry);
+        }
+        return registry.substring(0, dot);
+    }
+
+    /**
+     * The AWS region of an ECR registry host, e.g. {@code us-east-1}.
+     */
+    public static String region(String registry) {
+        registryId(registry);
+        String rest = registry.substring(registry.indexOf(".dkr.ecr.") + ".dkr.ecr.".length());
+        int dot = rest.indexOf('.');
+        if (dot <= 0) {
+            throw new IllegalArgumentException("Not an ECR registry: " + registry);
+        }
+        return rest.substring(0, dot);
+    }
+
+    /**
+     * Returns the remote digest for each image URI. Tags that do not exist are left out; a
+     * digest-pinned reference maps to its own digest without an API call.
+     */
+    public Map<String, String> resolve(List<String> imageUris) {
+        Map<String, String> digests = new LinkedHashMap<>();
+        // URI as given -> parsed reference, per repository; results are keyed by the URI as given
+        Map<String, List<Map.Entry<String, ImageReference>>> byRepository = new LinkedHashMap<>();
+        for (String uri : imageUris) {
+            ImageReference reference = ImageReference.parse(uri);
+            if (reference.getDigest() != null) {
+                digests.put(uri, reference.getDigest());
+                continue;
+            }
+            String cached = cache != null ? cache.get(uri) : null;
+            if (cached != null) {
+                digests.put(uri, cached);
+                continue;
+            }
+            String key = reference.getRegistry() + "/" + reference.getRepository();
+            byRepository.computeIfAbsent(key, k -> new ArrayList<>()).add(Map.entry(uri, reference));
+        }
+
+        List<CompletableFuture<Map<String, String>>> batches = new ArrayList<>();
+        for (List<Map.Entry<String, ImageReference>> references : byRepository.values()) {
+            for (int start = 0; start < references.size(); start += MAX_BATCH_SIZE) {
+                List<Map.Entry<String, ImageReference>> batch =
+                    references.subList(start, Math.min(references.size(), start + MAX_BATCH_SIZE));
+                batches.add(CompletableFuture.supplyAsync(() -> resolveBatch(batch), BATCHES));
+            }
+        }
+        try {
+            for (CompletableFuture<Map<String, String>> batch : batches) {
+                Map<String, String> resolved = batch.join();
+                digests.putAll(resolved);
+                if (cache != null) {
+                    resolved.forEach(cache::put);
+                }
+            }
+        } catch (CompletionException e) {
+            // Surface the SDK exception itself, as a sequential lookup would have
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+        if (cache != null) {
+            try {
+                cache.save();
+            } catch (IOException e) {
+                System.err.println("Could not save the tag cache: " + e.getMessage());
+            }
+        }
+        return digests;
+    }
+
+    private Map<String, String> resolveBatch(List<Map.Entry<String, ImageReference>> batch) {
+        Map<String, String> digests = new LinkedHashMap<>();
+        ImageReference first = batch.get(0).getValue();
+        List<ImageIdentifier> imageIds = new ArrayList<>();
+        for (Map.Entry<String, ImageReference> entry : batch) {
+            imageIds.add(ImageIdentifier.builder().imageTag(entry.getValue().getTag()).build());
+        }
+
+        // Accept every manifest type so ECR reports the digest of the tag as pushed
+        // instead of converting multi-arch indexes
+        BatchGetImageResponse response = ecrClients.apply(region(first.getRegistry())).batchGetImage(BatchGetImageRequest.builder()
+            .registryId(registryId(first.getRegistry()))
+            .repositoryName(first.getRepository())
+            .imageIds(imageIds)
+            .acceptedMediaTypes(Manifest.OCI_INDEX, Manifest.DOCKER_MANIFEST_LIST, Manifest.OCI_MANIFEST, Manifest.DOCKER_MANIFEST)
+            .build());
+
+        for (Image image : response.images()) {
+            String tag = image.imageId().imageTag();
+            for (Map.Entry<String, ImageReference> entry : batch) {
+                if (entry.getValue().getTag().equals(tag)) {
+                    digests.put(entry.getKey(), image.imageId().imageDigest());
+                }
+            }
+        }
+        for (ImageFailure failure : response.failures()) {
+            System.err.println("Could not resolve " + first.getRepository() + ":" + failure.imageId().imageTag()
+                + ": " + failure.failureReason());
+        }
+        return digests;
+    }
+}
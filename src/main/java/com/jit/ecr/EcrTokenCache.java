@@ -0,0 +1,138 @@
+package com.jit.ecr;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * On-disk cache of ECR authorization tokens. Tokens are valid for 12 hours, so a run only needs
+ * to call {@code GetAuthorizationToken} (and {@code docker login}) when the cached token is close
+ * to expiry. Entries are keyed by a hash of account, region and credential identity and are
+ * readable by the owner only.
+ */
+public class EcrTokenCache {
+    public static final Duration REFRESH_MARGIN = Duration.ofMinutes(30);
+
+    private final Path directory;
+
+    public EcrTokenCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public static final class Entry {
+        private final String username;
+        private final String password;
+        private final Instant expiresAt;
+        private final String dockerConfig;
+
+        public Entry(String username, String password, Instant expiresAt, String dockerConfig) {
+            this.username = username;
+            this.password = password;
+            this.expiresAt = expiresAt;
+            this.dockerConfig = dockerConfig;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public Instant getExpiresAt() {
+            return expiresAt;
+        }
+
+        /**
+         * Whether {@code docker login} was already run with this token against the given Docker config.
+         */
+        public boolean isLoggedInTo(String currentDockerConfig) {
+            return dockerConfig != null && dockerConfig.equals(currentDockerConfig);
+        }
+
+        public Entry withDockerLogin(String currentDockerConfig) {
+            return new Entry(username, password, expiresAt, currentDockerConfig);
+        }
+    }
+
+    public static String key(String registryId, String region, String accessKeyId) {
+        return Digests.hex(Digests.sha256((registryId + "|" + region + "|" + accessKeyId).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * The Docker config directory that {@code docker login} writes to.
+     */
+    public static String currentDockerConfig() {
+        String override = System.getenv("DOCKER_CONFIG");
+        if (override != null && !override.isEmpty()) {
+            return override;
+        }
+        return Path.of(System.getProperty("user.home"), ".docker").toString();
+    }
+
+    /**
+     * Returns the cached token, or null if there is none or it expires within {@link #REFRESH_MARGIN}.
+     */
+    public Entry get(String key) {
+        Path file = directory.resolve(key + ".json");
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            Map<String, Object> json = Json.parseObject(Files.readAllBytes(file));
+            Instant expiresAt = Instant.ofEpochMilli(Json.number(json, "expiresAt", 0));
+            if (Instant.now().plus(REFRESH_MARGIN).isAfter(expiresAt)) {
+                return null;
+            }
+            return new Entry(Json.string(json, "username"), Json.string(json, "password"), expiresAt,
+                Json.string(json, "dockerConfig"));
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Ignoring unreadable token cache " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void put(String key, Entry entry) throws IOException {
+        createPrivateDirectory();
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("username", entry.username);
+        json.put("password", entry.password);
+        json.put("expiresAt", entry.expiresAt.toEpochMilli());
+        json.put("dockerConfig", entry.dockerConfig);
+
+        // Temp files are created owner-only, so the token is never readable by others
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        Files.write(temp, Json.writeBytes(json));
+        Files.move(temp, directory.resolve(key + ".json"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void createPrivateDirectory() throws IOException {
+        if (Files.isDirectory(directory)) {
+            return;
+        }
+        if (isPosix()) {
+            Files.createDirectories(directory.getParent());
+            try {
+                Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } catch (FileAlreadyExistsException e) {
+                // Created concurrently by another run
+            }
+        } else {
+            Files.createDirectories(directory);
+        }
+    }
+
+    private static boolean isPosix() {
+        return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    }
+}
@@ -0,0 +1,223 @@
+package com.jit.ecr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The images this tool knows about, read from a JSON file so tools can be added without a
+ * rebuild:
+ *
+ * <pre>
+ * {
+ *   "defaults": {"registry": "123456789012.dkr.ecr.us-east-1.amazonaws.com", "repository": "tools"},
+ *   "images": [
+ *     {"name": "trivy", "tag": "trivy-latest", "groups": ["iac"], "priority": 10, "default": true},
+ *     {"name": "scanner", "registry": "...", "repository": "scanner", "tag": "v2", "platform": "linux/arm64"}
+ *   ]
+ * }
+ * </pre>
+ *
+ * <p>Each entry needs a name, a registry, a repository and a tag or digest; {@code defaults}
+ * fills in any of registry, repository and platform that an entry leaves out. Entries marked
+ * {@code default} are pulled when no images are named. Without {@code --catalog} the catalog
+ * built into the jar is used.
+ */
+public class ImageCatalog {
+    public static final String BUILT_IN = "/catalog.json";
+
+    private final Map<String, Entry> entries;
+
+    private ImageCatalog(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * One image in the catalog.
+     */
+    public static final class Entry {
+        private final String name;
+        private final ImageReference reference;
+        private final List<String> groups;
+        private final int priority;
+        private final Platform platform;
+        private final boolean pulledByDefault;
+
+        public Entry(String name, ImageReference reference, List<String> groups, int priority, Platform platform,
+                boolean pulledByDefault) {
+            this.name = name;
+            this.reference = reference;
+            this.groups = List.copyOf(groups);
+            this.priority = priority;
+            this.platform = platform;
+            this.pulledByDefault = pulledByDefault;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ImageReference getReference() {
+            return reference;
+        }
+
+        public String getUri() {
+            return reference.toString();
+        }
+
+        public List<String> getGroups() {
+            return groups;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * The platform to pull for this image, or null for the one given on the command line.
+         */
+        public Platform getPlatform() {
+            return platform;
+        }
+
+        public boolean isPulledByDefault() {
+            return pulledByDefault;
+        }
+    }
+
+    public static ImageCatalog load(Path file) throws IOException {
+        return parse(Files.readAllBytes(file), file.toString());
+    }
+
+    public static ImageCatalog builtIn() throws IOException {
+        try (InputStream in = ImageCatalog.class.getResourceAsStream(BUILT_IN)) {
+            if (in == null) {
+                throw new IOException("No built-in catalog " + BUILT_IN + " on the classpath");
+            }
+            return parse(in.readAllBytes(), "built-in catalog");
+        }
+    }
+
+    /**
+     * Parses a catalog; {@code source} names it in error messages.
+     */
+    public static ImageCatalog parse(byte[] json, String source) {
+        Map<String, Object> root;
+        try {
+            root = Json.parseObject(json);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid catalog " + source + ": " + e.getMessage());
+        }
+        Map<String, Object> defaults = Json.object(root.get("defaults"));
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        int index = 0;
+        for (Object item : Json.array(root.get("images"))) {
+            index++;
+            Map<String, Object> image = Json.object(item);
+            String name = Json.string(image, "name");
+            String where = source + ", image " + (name != null ? name : "#" + index);
+            if (image == null || name == null || name.isBlank()) {
+                throw new IllegalArgumentException("Invalid catalog " + where + ": missing name");
+            }
+            if (entries.containsKey(name)) {
+                throw new IllegalArgumentException("Invalid catalog " + where + ": duplicate name");
+            }
+            String registry = valueOrDefault(image, defaults, "registry");
+            String repository = valueOrDefault(image, defaults, "repository");
+            String tag = Json.string(image, "tag");
+            String digest = Json.string(image, "digest");
+            if (registry == null || repository == null || (tag == null && digest == null)) {
+                throw new IllegalArgumentException("Invalid catalog " + where + ": needs registry, repository and tag or digest");
+            }
+
+            List<String> groups = new ArrayList<>();
+            for (Object group : Json.array(image.get("groups"))) {
+                groups.add(group.toString());
+            }
+            String platform = valueOrDefault(image, defaults, "platform");
+            try {
+                if (digest != null) {
+                    Digests.validate(digest);
+                }
+                entries.put(name, new Entry(name, new ImageReference(registry, repository, tag, digest), groups,
+                    (int) Json.number(image, "priority", AdaptiveScheduler.DEFAULT_PRIORITY),
+                    platform != null ? Platform.parse(platform) : null, Boolean.TRUE.equals(image.get("default"))));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid catalog " + where + ": " + e.getMessage());
+            }
+        }
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException("Invalid catalog " + source + ": no images");
+        }
+        return new ImageCatalog(entries);
+    }
+
+    private static String valueOrDefault(Map<String, Object> image, Map<String, Object> defaults, String key) {
+        String value = Json.string(image, key);
+        return value != null ? value : Json.string(defaults, key);
+    }
+
+    /**
+     * The entry named {@code name}, or null.
+     */
+    public Entry get(String name) {
+        return entries.get(name);
+    }
+
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * All image names, sorted.
+     */
+    public List<String> getNames() {
+        List<String> names = new ArrayList<>(entries.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * All group names, sorted.
+     */
+    public List<String> getGroups() {
+        TreeSet<String> groups = new TreeSet<>();
+        for (Entry entry : entries.values()) {
+            groups.addAll(entry.getGroups());
+        }
+        return new ArrayList<>(groups);
+    }
+
+    /**
+     * The images in {@code group}, in catalog order; empty for a group no image belongs to.
+     */
+    public List<String> group(String group) {
+        List<String> names = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.getGroups().contains(group)) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * The images to pull when none are named, in catalog order.
+     */
+    public List<String> getDefaultNames() {
+        List<String> names = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.isPulledByDefault()) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+}
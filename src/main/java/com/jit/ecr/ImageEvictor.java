@@ -0,0 +1,268 @@
+package com.jit.ecr;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Keeps Docker's image storage plus the local blob cache within a disk budget. When the budget is
+ * exceeded it reclaims space in order of how cheap it is to get back: images a tag pointed at
+ * before its current digest, cached blobs no tracked image refers to, and finally whole tracked
+ * images, least recently used first. Protected images and images a container still uses are
+ * never removed.
+ */
+public class ImageEvictor {
+    /**
+     * Blobs this young are left alone, as another pull may be about to record them.
+     */
+    private static final Duration BLOB_GRACE_PERIOD = Duration.ofHours(1);
+
+    private final ImageStateStore state;
+    private final BlobStore blobStore;
+    private final DockerImages docker;
+    private final long budgetBytes;
+
+    /**
+     * The Docker operations eviction needs, over the Engine API or the CLI.
+     */
+    public interface DockerImages {
+        /**
+         * Bytes used by all image layers on the host.
+         */
+        long layersSize() throws IOException;
+
+        /**
+         * Removes a tag or image ID; false if it is still in use.
+         */
+        boolean remove(String name) throws IOException;
+    }
+
+    public ImageEvictor(ImageStateStore state, BlobStore blobStore, DockerImages docker, long budgetBytes) {
+        this.state = state;
+        this.blobStore = blobStore;
+        this.docker = docker;
+        this.budgetBytes = budgetBytes;
+    }
+
+    public static DockerImages engine(DockerEngineClient client) {
+        return new DockerImages() {
+            @Override
+            public long layersSize() throws IOException {
+                return client.layersSize();
+            }
+
+            @Override
+            public boolean remove(String name) throws IOException {
+                return client.removeImage(name);
+            }
+        };
+    }
+
+    public static DockerImages cli() {
+        return new DockerImages() {
+            @Override
+            public long layersSize() throws IOException {
+                Process process = new ProcessBuilder("docker", "system", "df", "--format", "{{.Type}}\t{{.Size}}")
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+                long size = 0;
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] fields = line.split("\t");
+                        if (fields.length == 2 && fields[0].equals("Images")) {
+                            size = parseHumanSize(fields[1]);
+                        }
+                    }
+                }
+                waitFor(process, "docker system df");
+                return size;
+            }
+
+            @Override
+            public boolean remove(String name) throws IOException {
+                Process process = new ProcessBuilder("docker", "image", "rm", name)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+                return waitFor(process, "docker image rm") == 0;
+            }
+        };
+    }
+
+    private static int waitFor(Process process, String command) throws IOException {
+        try {
+            return process.waitFor();
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running " + command);
+        }
+    }
+
+    /**
+     * Parses the decimal sizes the docker CLI prints, such as {@code 512.3MB} or {@code 1.2GB}.
+     */
+    static long parseHumanSize(String value) {
+        String normalized = value.trim().toUpperCase(Locale.ROOT);
+        String[] units = {"TB", "GB", "MB", "KB", "B"};
+        long[] multipliers = {1_000_000_000_000L, 1_000_000_000L, 1_000_000L, 1_000L, 1L};
+        for (int i = 0; i < units.length; i++) {
+            if (normalized.endsWith(units[i])) {
+                String number = normalized.substring(0, normalized.length() - units[i].length()).trim();
+                try {
+                    return (long) (Double.parseDouble(number) * multipliers[i]);
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Invalid size: " + value);
+    }
+
+    /**
+     * Bytes currently counted against the budget.
+     */
+    public long usage() throws IOException {
+        return (docker != null ? docker.layersSize() : 0) + blobStore.totalSize();
+    }
+
+    /**
+     * Evicts until usage is within the budget or nothing more may go. Returns the usage afterwards.
+     */
+    public long enforce(Set<String> protectedUris) throws IOException {
+        long usage = usage();
+        if (usage <= budgetBytes) {
+            return usage;
+        }
+        System.out.println("Disk usage " + formatBytes(usage) + " exceeds the budget of " + formatBytes(budgetBytes)
+            + ", evicting...");
+
+        if (docker != null) {
+            for (String imageUri : state.getImageUris()) {
+                for (String imageId : state.getSupersededImageIds(imageUri)) {
+                    if (docker.remove(imageId)) {
+                        System.out.println("Evicted superseded image " + imageId + " of " + imageUri);
+                        state.removeSuperseded(imageUri, imageId);
+                    }
+                }
+            }
+            state.save();
+            usage = usage();
+        }
+
+        if (usage > budgetBytes) {
+            usage -= collectBlobs();
+        }
+
+        // Without Docker only the cache can be trimmed; the tracked images live in the daemon
+        List<String> candidates = new ArrayList<>();
+        for (String imageUri : docker != null ? state.getImageUris() : List.<String>of()) {
+            if (!protectedUris.contains(imageUri)) {
+                candidates.add(imageUri);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(state::getLastUsed));
+        for (String imageUri : candidates) {
+            if (usage <= budgetBytes) {
+                break;
+            }
+            if (!docker.remove(imageUri)) {
+                System.out.println("Keeping " + imageUri + ": still in use");
+                continue;
+            }
+            long lastUsed = state.getLastUsed(imageUri);
+            System.out.println("Evicted " + imageUri + " (last used "
+                + (lastUsed > 0 ? Instant.ofEpochMilli(lastUsed).toString() : "never") + ")");
+            state.remove(imageUri);
+            state.save();
+            collectBlobs();
+            usage = usage();
+        }
+
+        if (usage > budgetBytes) {
+            System.out.println("Disk usage " + formatBytes(usage) + " is still over budget; the rest is protected or in use");
+        } else {
+            System.out.println("Disk usage is now " + formatBytes(usage));
+        }
+        return usage;
+    }
+
+    /**
+     * Deletes cached blobs that no tracked image refers to. Returns the bytes freed.
+     */
+    private long collectBlobs() throws IOException {
+        Set<String> referenced = new HashSet<>();
+        for (String imageUri : state.getImageUris()) {
+            referenceManifest(state.getDigest(imageUri), referenced);
+            referenceManifest(state.getManifest(imageUri), referenced);
+        }
+
+        long freed = 0;
+        int deleted = 0;
+        Instant cutoff = Instant.now().minus(BLOB_GRACE_PERIOD);
+        for (String digest : blobStore.list()) {
+            if (referenced.contains(digest)) {
+                continue;
+            }
+            try {
+                if (Files.getLastModifiedTime(blobStore.path(digest)).toInstant().isAfter(cutoff)) {
+                    continue;
+                }
+                long size = blobStore.size(digest);
+                if (blobStore.delete(digest)) {
+                    freed += size;
+                    deleted++;
+                }
+            } catch (NoSuchFileException e) {
+                // Already gone
+            }
+        }
+        if (deleted > 0) {
+            System.out.println("Removed " + deleted + " unreferenced cached blobs (" + formatBytes(freed) + ")");
+        }
+        return freed;
+    }
+
+    private void referenceManifest(String digest, Set<String> referenced) throws IOException {
+        Manifest manifest;
+        try {
+            if (digest == null || !referenced.add(digest) || !blobStore.contains(digest)) {
+                return;
+            }
+            manifest = Manifest.parse(blobStore.read(digest), null);
+        } catch (IllegalArgumentException e) {
+            // A malformed digest or manifest in the state file references nothing
+            return;
+        }
+        if (manifest.getConfig() != null) {
+            referenced.add(manifest.getConfig().getDigest());
+        }
+        for (Descriptor layer : manifest.getLayers()) {
+            referenced.add(layer.getDigest());
+        }
+        // Indexes keep every platform's manifest that is cached
+        for (Descriptor child : manifest.getManifests()) {
+            referenceManifest(child.getDigest(), referenced);
+        }
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024L * 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+        }
+        return String.format(Locale.ROOT, "%.1f GB", bytes / (1024.0 * 1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,91 @@
+package com.jit.ecr;
+
+/**
+ * A parsed image URI of the form {@code registry/repository[:tag][@digest]}.
+ */
+public final class ImageReference {
+    private final String registry;
+    private final String repository;
+    private final String tag;
+    private final String digest;
+
+    public ImageReference(String registry, String repository, String tag, String digest) {
+        this.registry = registry;
+        this.repository = repository;
+        this.tag = tag;
+        this.digest = digest;
+    }
+
+    public static ImageReference parse(String uri) {
+        int slash = uri.indexOf('/');
+        if (slash <= 0) {
+            throw new IllegalArgumentException("Image URI must include a registry host: " + uri);
+        }
+        String registry = uri.substring(0, slash);
+        String remainder = uri.substring(slash + 1);
+
+        String digest = null;
+        int at = remainder.indexOf('@');
+        if (at >= 0) {
+            digest = remainder.substring(at + 1);
+            remainder = remainder.substring(0, at);
+        }
+
+        String tag = null;
+        int colon = remainder.lastIndexOf(':');
+        if (colon >= 0) {
+            tag = remainder.substring(colon + 1);
+            remainder = remainder.substring(0, colon);
+        } else if (digest == null) {
+            tag = "latest";
+        }
+        return new ImageReference(registry, remainder, tag, digest);
+    }
+
+    public String getRegistry() {
+        return registry;
+    }
+
+    public String getRepository() {
+        return repository;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * The manifest reference to request from the registry: the digest if pinned, otherwise the tag.
+     */
+    public String reference() {
+        return digest != null ? digest : tag;
+    }
+
+    /**
+     * The name Docker lists the image under, {@code registry/repository:tag}, or null for an image
+     * pinned by digest alone.
+     */
+    public String taggedName() {
+        return tag != null ? registry + "/" + repository + ":" + tag : null;
+    }
+
+    public ImageReference withDigest(String newDigest) {
+        return new ImageReference(registry, repository, tag, newDigest);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(registry).append('/').append(repository);
+        if (tag != null) {
+            out.append(':').append(tag);
+        }
+        if (digest != null) {
+            out.append('@').append(digest);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,153 @@
+package com.jit.ecr;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers which remote digest each image URI was last pulled at and which local image ID that
+ * produced. {@code docker load} does not record RepoDigests, so this is how natively pulled images
+ * are recognised as up to date.
+ *
+ * <p>Each entry also records when the image was last pulled and last requested, and the images
+ * its tag pointed at before, so {@link ImageEvictor} can reclaim the least recently used ones.
+ */
+public class ImageStateStore {
+    private final Path file;
+    private final Map<String, Object> images;
+
+    private ImageStateStore(Path file, Map<String, Object> images) {
+        this.file = file;
+        this.images = images;
+    }
+
+    public static ImageStateStore load(Path cacheRoot) {
+        Path file = cacheRoot.resolve("images.json");
+        Map<String, Object> images = new LinkedHashMap<>();
+        if (Files.exists(file)) {
+            try {
+                Map<String, Object> json = Json.parseObject(Files.readAllBytes(file));
+                Map<String, Object> stored = Json.object(json.get("images"));
+                if (stored != null) {
+                    images.putAll(stored);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Ignoring unreadable image state " + file + ": " + e.getMessage());
+            }
+        }
+        return new ImageStateStore(file, images);
+    }
+
+    public synchronized String getDigest(String imageUri) {
+        return Json.string(Json.object(images.get(imageUri)), "digest");
+    }
+
+    public synchronized String getImageId(String imageUri) {
+        return Json.string(Json.object(images.get(imageUri)), "imageId");
+    }
+
+    public synchronized void recordPull(String imageUri, String digest, String imageId) {
+        recordPull(imageUri, digest, imageId, null);
+    }
+
+    /**
+     * Records a pull. If the tag previously resolved to a different local image, that image is
+     * remembered as superseded until it is evicted.
+     */
+    public synchronized void recordPull(String imageUri, String digest, String imageId, String manifestDigest) {
+        Map<String, Object> previous = Json.object(images.get(imageUri));
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("digest", digest);
+        entry.put("imageId", imageId);
+        entry.put("manifest", manifestDigest);
+        entry.put("pulledAt", System.currentTimeMillis());
+
+        List<Object> superseded = new ArrayList<>();
+        if (previous != null) {
+            if (previous.get("lastUsedAt") != null) {
+                entry.put("lastUsedAt", previous.get("lastUsedAt"));
+            }
+            superseded.addAll(Json.array(previous.get("superseded")));
+            String previousId = Json.string(previous, "imageId");
+            if (previousId != null && !previousId.equals(imageId)) {
+                Map<String, Object> old = new LinkedHashMap<>();
+                old.put("digest", previous.get("digest"));
+                old.put("imageId", previousId);
+                old.put("pulledAt", previous.get("pulledAt"));
+                old.put("lastUsedAt", previous.get("lastUsedAt"));
+                superseded.add(old);
+            }
+            superseded.removeIf(old -> imageId != null && imageId.equals(Json.string(Json.object(old), "imageId")));
+        }
+        entry.put("superseded", superseded);
+        images.put(imageUri, entry);
+    }
+
+    /**
+     * Marks an image as requested now, whether it was pulled or already up to date.
+     */
+    public synchronized void recordUse(String imageUri) {
+        Map<String, Object> entry = Json.object(images.get(imageUri));
+        if (entry == null) {
+            entry = new LinkedHashMap<>();
+            images.put(imageUri, entry);
+        }
+        entry.put("lastUsedAt", System.currentTimeMillis());
+    }
+
+    public synchronized List<String> getImageUris() {
+        return new ArrayList<>(images.keySet());
+    }
+
+    public synchronized String getManifest(String imageUri) {
+        return Json.string(Json.object(images.get(imageUri)), "manifest");
+    }
+
+    /**
+     * When the image was last requested, falling back to when it was pulled; 0 if unknown.
+     */
+    public synchronized long getLastUsed(String imageUri) {
+        Map<String, Object> entry = Json.object(images.get(imageUri));
+        return Json.number(entry, "lastUsedAt", Json.number(entry, "pulledAt", 0));
+    }
+
+    /**
+     * Local image IDs this tag pointed at before its current one, oldest first.
+     */
+    public synchronized List<String> getSupersededImageIds(String imageUri) {
+        List<String> imageIds = new ArrayList<>();
+        Map<String, Object> entry = Json.object(images.get(imageUri));
+        for (Object old : Json.array(entry != null ? entry.get("superseded") : null)) {
+            String imageId = Json.string(Json.object(old), "imageId");
+            if (imageId != null) {
+                imageIds.add(imageId);
+            }
+        }
+        return imageIds;
+    }
+
+    public synchronized void removeSuperseded(String imageUri, String imageId) {
+        Map<String, Object> entry = Json.object(images.get(imageUri));
+        if (entry != null) {
+            Json.array(entry.get("superseded")).removeIf(old -> imageId.equals(Json.string(Json.object(old), "imageId")));
+        }
+    }
+
+    public synchronized void remove(String imageUri) {
+        images.remove(imageUri);
+    }
+
+    public synchronized void save() throws IOException {
+        Files.createDirectories(file.getParent());
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("images", images);
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        Files.write(temp, Json.writeBytes(json));
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
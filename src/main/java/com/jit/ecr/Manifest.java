@@ -0,0 +1,112 @@
+package com.jit.ecr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An image manifest or a multi-arch index, in either Docker v2 schema 2 or OCI form.
+ */
+public final class Manifest {
+    public static final String DOCKER_MANIFEST = "application/vnd.docker.distribution.manifest.v2+json";
+    public static final String DOCKER_MANIFEST_LIST = "application/vnd.docker.distribution.manifest.list.v2+json";
+    public static final String OCI_MANIFEST = "application/vnd.oci.image.manifest.v1+json";
+    public static final String OCI_INDEX = "application/vnd.oci.image.index.v1+json";
+    public static final String ACCEPT = String.join(", ", OCI_INDEX, DOCKER_MANIFEST_LIST, OCI_MANIFEST, DOCKER_MANIFEST);
+
+    private final String mediaType;
+    private final String digest;
+    private final byte[] raw;
+    private final Descriptor config;
+    private final List<Descriptor> layers;
+    private final List<Descriptor> manifests;
+
+    private Manifest(String mediaType, String digest, byte[] raw, Descriptor config,
+                     List<Descriptor> layers, List<Descriptor> manifests) {
+        this.mediaType = mediaType;
+        this.digest = digest;
+        this.raw = raw;
+        this.config = config;
+        this.layers = layers;
+        this.manifests = manifests;
+    }
+
+    /**
+     * Parses a manifest body. The media type falls back to the Content-Type header for
+     * manifests that omit the {@code mediaType} field.
+     */
+    public static Manifest parse(byte[] raw, String contentType) {
+        Map<String, Object> json = Json.parseObject(raw);
+        String mediaType = Json.string(json, "mediaType");
+        if (mediaType == null) {
+            mediaType = contentType;
+        }
+        if (mediaType == null) {
+            mediaType = json.containsKey("manifests") ? OCI_INDEX : OCI_MANIFEST;
+        }
+
+        Map<String, Object> configJson = Json.object(json.get("config"));
+        Descriptor config = configJson != null ? Descriptor.fromJson(configJson) : null;
+        List<Descriptor> layers = descriptors(json.get("layers"));
+        List<Descriptor> manifests = descriptors(json.get("manifests"));
+        return new Manifest(mediaType, Digests.sha256(raw), raw, config, layers, manifests);
+    }
+
+    private static List<Descriptor> descriptors(Object value) {
+        List<Descriptor> result = new ArrayList<>();
+        for (Object item : Json.array(value)) {
+            result.add(Descriptor.fromJson(Json.object(item)));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    public boolean isIndex() {
+        return OCI_INDEX.equals(mediaType) || DOCKER_MANIFEST_LIST.equals(mediaType);
+    }
+
+    public Descriptor select(Platform platform) {
+        for (Descriptor candidate : manifests) {
+            if (platform.matches(candidate.getPlatform())) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    public long totalLayerSize() {
+        long total = 0;
+        for (Descriptor layer : layers) {
+            total += Math.max(0, layer.getSize());
+        }
+        return total;
+    }
+
+    public Descriptor toDescriptor() {
+        return new Descriptor(mediaType, digest, raw.length, null);
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public byte[] getRaw() {
+        return raw;
+    }
+
+    public Descriptor getConfig() {
+        return config;
+    }
+
+    public List<Descriptor> getLayers() {
+        return layers;
+    }
+
+    public List<Descriptor> getManifests() {
+        return manifests;
+    }
+}
@@ -0,0 +1,260 @@
+package com.jit.ecr;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Pulls images straight from the registry into a {@link BlobStore} instead of going through
+ * {@code docker pull}.
+ *
+ * <p>A run is split into two phases: {@link #plan} resolves every requested manifest and collects
+ * the unique blobs across all images, then {@link #execute} downloads each missing digest exactly
+ * once and reports each image as soon as all of its blobs are present. Blobs are started by
+ * image priority and then largest first, see {@link PullPlan#getDownloadOrder()}.
+ */
+public class NativePuller {
+    private final Function<ImageReference, RegistryClient> registries;
+    private final BlobStore blobStore;
+    private final Platform platform;
+    private final AdaptiveScheduler scheduler;
+    private final PullMetrics metrics;
+    private final BlobDownloader downloader;
+
+    public NativePuller(RegistryClient registryClient, BlobStore blobStore, Platform platform, AdaptiveScheduler scheduler) {
+        this(registryClient, blobStore, platform, scheduler, new PullMetrics());
+    }
+
+    public NativePuller(RegistryClient registryClient, BlobStore blobStore, Platform platform, AdaptiveScheduler scheduler,
+            PullMetrics metrics) {
+        this(registryClient, blobStore, platform, scheduler, metrics, null);
+    }
+
+    /**
+     * Like the other constructors, but blobs are fetched from {@code peers} when one has them.
+     */
+    public NativePuller(RegistryClient registryClient, BlobStore blobStore, Platform platform, AdaptiveScheduler scheduler,
+            PullMetrics metrics, PeerClient peers) {
+        this(image -> registryClient, blobStore, platform, scheduler, metrics, peers);
+    }
+
+    /**
+     * Like the other constructors, for images in several registries: {@code registries} returns
+     * the client for an image's registry, or null if there is none.
+     */
+    public NativePuller(Function<ImageReference, RegistryClient> registries, BlobStore blobStore, Platform platform,
+            AdaptiveScheduler scheduler, PullMetrics metrics, PeerClient peers) {
+        this.registries = registries;
+        this.blobStore = blobStore;
+        this.platform = platform;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.downloader = new BlobDownloader(registries, blobStore, scheduler, metrics, peers);
+    }
+
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
+
+    /**
+     * Resolves the manifests of all images concurrently. Images that cannot be resolved are
+     * recorded as failures in the plan rather than aborting the run.
+     */
+    public PullPlan plan(Map<String, String> imageUris) throws InterruptedException {
+        return plan(imageUris, Map.of());
+    }
+
+    /**
+     * Like {@link #plan(Map)}, with a scheduling priority per image name; higher goes first and
+     * images without an entry get {@link AdaptiveScheduler#DEFAULT_PRIORITY}.
+     */
+    public PullPlan plan(Map<String, String> imageUris, Map<String, Integer> priorities) throws InterruptedException {
+        return plan(imageUris, priorities, Map.of());
+    }
+
+    /**
+     * Like {@link #plan(Map, Map)}, with the platform to select per image name; images without an
+     * entry get the puller's platform.
+     */
+    public PullPlan plan(Map<String, String> imageUris, Map<String, Integer> priorities, Map<String, Platform> platforms)
+            throws InterruptedException {
+        PullPlan plan = new PullPlan();
+        List<CompletableFuture<Void>> resolutions = new ArrayList<>();
+        for (Map.Entry<String, String> image : imageUris.entrySet()) {
+            int priority = priorities.getOrDefault(image.getKey(), AdaptiveScheduler.DEFAULT_PRIORITY);
+            Platform imagePlatform = platforms.getOrDefault(image.getKey(), platform);
+            resolutions.add(scheduler.submit(() -> {
+                long start = System.nanoTime();
+                PullMetrics.ImageMetrics imageMetrics = metrics.image(image.getKey());
+                imageMetrics.setUri(image.getValue());
+                try {
+                    ImageReference reference = ImageReference.parse(image.getValue());
+                    Manifest tagged = fetchManifest(reference, reference.reference());
+                    Manifest manifest = tagged;
+                    if (tagged.isIndex()) {
+                        blobStore.write(tagged.getRaw());
+                        Descriptor selected = tagged.select(imagePlatform);
+                        if (selected == null) {
+                            throw new IOException("No manifest for platform " + imagePlatform + " in " + reference);
+                        }
+                        manifest = fetchManifest(reference, selected.getDigest());
+                    }
+                    blobStore.write(manifest.getRaw());
+                    plan.add(new PullPlan.PlannedImage(image.getKey(), reference, manifest, tagged.getDigest(), priority), blobStore);
+                    imageMetrics.setResolveMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    plan.addFailure(image.getKey(), "interrupted");
+                } catch (Exception e) {
+                    plan.addFailure(image.getKey(), e.getMessage());
+                }
+            }, priority, registryHost(image.getValue())));
+        }
+        try {
+            await(resolutions);
+        } catch (IOException e) {
+            // Failures are recorded per image in the plan
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+        return plan;
+    }
+
+    /**
+     * The registry of {@code imageUri}, or null if it does not parse; the resolution then fails
+     * and records why.
+     */
+    private static String registryHost(String imageUri) {
+        try {
+            return ImageReference.parse(imageUri).getRegistry();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Manifests are content-addressed, so one already in the store under its digest is served
+     * from disk; only tags need a registry round trip.
+     */
+    private Manifest fetchManifest(ImageReference reference, String tagOrDigest) throws IOException, InterruptedException {
+        if (tagOrDigest.startsWith("sha256:") && blobStore.contains(tagOrDigest)) {
+            return Manifest.parse(blobStore.read(tagOrDigest), null);
+        }
+        return RegistryClient.forImage(registries, reference).fetchManifest(reference, tagOrDigest);
+    }
+
+    /**
+     * Downloads every missing blob in the plan once. {@code onImageReady} is called as each image
+     * becomes complete, possibly before other downloads finish.
+     */
+    public List<PulledImage> execute(PullPlan plan, Consumer<PulledImage> onImageReady) throws InterruptedException {
+        return execute(plan, onImageReady, PullDeadlines.NONE);
+    }
+
+    /**
+     * Like {@link #execute(PullPlan, Consumer)}, but downloads still running at the deadline are
+     * interrupted and their images fail. All images download together from the start, so the
+     * per-image timeout counts from this call, capped by the run's deadline. Partial blobs are
+     * kept and resume on the next run.
+     */
+    public List<PulledImage> execute(PullPlan plan, Consumer<PulledImage> onImageReady, PullDeadlines deadlines)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        Instant deadline = deadlines.imageDeadline();
+        Consumer<PulledImage> recordReady = image -> {
+            metrics.image(image.getName()).setReadyMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            onImageReady.accept(image);
+        };
+        List<PulledImage> ready = new ArrayList<>();
+        for (PullPlan.PlannedImage image : plan.getImages()) {
+            if (image.isComplete()) {
+                ready.add(image.toPulledImage());
+                recordReady.accept(image.toPulledImage());
+            }
+        }
+
+        List<CompletableFuture<Void>> downloads = new ArrayList<>();
+        for (PullPlan.PlannedBlob blob : plan.getDownloadOrder()) {
+            String digest = blob.getDescriptor().getDigest();
+            downloads.add(scheduler.submit(() -> {
+                try (PullDeadlines.Timeout timeout = PullDeadlines.interruptAt(deadline)) {
+                    try {
+                        downloader.download(blob.getSource(), blob.getDescriptor());
+                    } catch (IOException | InterruptedException e) {
+                        if (timeout.isExpired()) {
+                            throw new UncheckedIOException(new IOException("deadline exceeded"));
+                        }
+                        if (e instanceof InterruptedException) {
+                            Thread.currentThread().interrupt();
+                            throw new CompletionException(e);
+                        }
+                        throw new UncheckedIOException((IOException) e);
+                    }
+                }
+            }, blob.getPriority(), blob.getSource().getRegistry()).whenComplete((ignored, error) -> {
+                if (error != null) {
+                    Throwable cause = error;
+                    while ((cause instanceof CompletionException || cause instanceof UncheckedIOException)
+                            && cause.getCause() != null) {
+                        cause = cause.getCause();
+                    }
+                    plan.fail(digest, "blob " + digest + ": " + cause.getMessage());
+                    return;
+                }
+                for (PullPlan.PlannedImage image : plan.complete(digest)) {
+                    synchronized (ready) {
+                        ready.add(image.toPulledImage());
+                    }
+                    recordReady.accept(image.toPulledImage());
+                }
+            }));
+        }
+
+        try {
+            await(downloads);
+        } catch (IOException e) {
+            // Already recorded against the affected images in the plan
+        }
+        synchronized (ready) {
+            return new ArrayList<>(ready);
+        }
+    }
+
+    public PulledImage pull(String name, String imageUri) throws IOException, InterruptedException {
+        PullPlan plan = plan(Map.of(name, imageUri));
+        List<PulledImage> pulled = execute(plan, image -> { });
+        if (pulled.isEmpty()) {
+            throw new IOException(plan.getFailures().getOrDefault(name, "pull failed"));
+        }
+        return pulled.get(0);
+    }
+
+    static void await(List<? extends CompletableFuture<?>> futures) throws IOException, InterruptedException {
+        try {
+            // get() rather than join() so a caller being stopped is not stuck behind the downloads
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.jit.ecr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes pulled images as a single OCI image layout tarball for air-gapped transfer. Blobs
+ * shared by several images are written once. The archive also carries a {@code docker save}
+ * style {@code manifest.json} pointing into {@code blobs/}, so {@code docker load} accepts it
+ * on daemons that predate OCI archive support.
+ */
+public final class OciArchiveWriter {
+    private OciArchiveWriter() {
+    }
+
+    public static void write(OutputStream out, List<PulledImage> images, BlobStore store) throws IOException {
+        Set<String> blobs = new LinkedHashSet<>();
+        List<Object> indexManifests = new ArrayList<>();
+        List<Object> dockerManifests = new ArrayList<>();
+
+        for (PulledImage image : images) {
+            Manifest manifest = image.getManifest();
+            blobs.add(manifest.getDigest());
+            blobs.add(manifest.getConfig().getDigest());
+            List<Object> layerNames = new ArrayList<>();
+            for (Descriptor layer : manifest.getLayers()) {
+                blobs.add(layer.getDigest());
+                layerNames.add(blobName(layer.getDigest()));
+            }
+
+            Map<String, Object> annotations = new LinkedHashMap<>();
+            annotations.put(OciLayoutWriter.IMAGE_NAME_ANNOTATION, image.getReference().toString());
+            if (image.getReference().getTag() != null) {
+                annotations.put(OciLayoutWriter.REF_NAME_ANNOTATION, image.getReference().getTag());
+            }
+            Map<String, Object> entry = manifest.toDescriptor().toJson();
+            entry.put("annotations", annotations);
+            indexManifests.add(entry);
+
+            Map<String, Object> dockerEntry = new LinkedHashMap<>();
+            dockerEntry.put("Config", blobName(manifest.getConfig().getDigest()));
+            dockerEntry.put("RepoTags", DockerArchiveWriter.repoTags(image.getReference()));
+            dockerEntry.put("Layers", layerNames);
+            dockerManifests.add(dockerEntry);
+        }
+
+        Map<String, Object> index = new LinkedHashMap<>();
+        index.put("schemaVersion", 2L);
+        index.put("mediaType", Manifest.OCI_INDEX);
+        index.put("manifests", indexManifests);
+
+        TarWriter tar = new TarWriter(out);
+        tar.addFile("oci-layout", "{\"imageLayoutVersion\":\"1.0.0\"}".getBytes(StandardCharsets.UTF_8));
+        tar.addDirectory("blobs");
+        tar.addDirectory("blobs/sha256");
+        for (String digest : blobs) {
+            tar.addFile(blobName(digest), store.path(digest));
+        }
+        tar.addFile("index.json", Json.writeBytes(index));
+        tar.addFile("manifest.json", Json.writeBytes(dockerManifests));
+        tar.finish();
+    }
+
+    private static String blobName(String digest) {
+        return "blobs/sha256/" + Digests.hex(digest);
+    }
+}
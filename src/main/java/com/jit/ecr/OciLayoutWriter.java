@@ -0,0 +1,76 @@
+package com.jit.ecr;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes pulled images into an OCI image layout directory, merging with any images already there.
+ */
+public final class OciLayoutWriter {
+    public static final String REF_NAME_ANNOTATION = "org.opencontainers.image.ref.name";
+    public static final String IMAGE_NAME_ANNOTATION = "io.containerd.image.name";
+
+    private OciLayoutWriter() {
+    }
+
+    public static void write(Path directory, List<PulledImage> images, BlobStore store) throws IOException {
+        Files.createDirectories(directory);
+        Files.write(directory.resolve("oci-layout"),
+            "{\"imageLayoutVersion\":\"1.0.0\"}".getBytes(StandardCharsets.UTF_8));
+
+        Map<String, Object> index = readIndex(directory);
+        List<Object> manifests = Json.array(index.get("manifests"));
+
+        for (PulledImage image : images) {
+            Manifest manifest = image.getManifest();
+            copyBlob(directory, store, manifest.getDigest());
+            copyBlob(directory, store, manifest.getConfig().getDigest());
+            for (Descriptor layer : manifest.getLayers()) {
+                copyBlob(directory, store, layer.getDigest());
+            }
+
+            String name = image.getReference().toString();
+            manifests.removeIf(existing -> {
+                Map<String, Object> annotations = Json.object(Json.object(existing).get("annotations"));
+                return name.equals(Json.string(annotations, IMAGE_NAME_ANNOTATION));
+            });
+
+            Map<String, Object> annotations = new LinkedHashMap<>();
+            annotations.put(IMAGE_NAME_ANNOTATION, name);
+            if (image.getReference().getTag() != null) {
+                annotations.put(REF_NAME_ANNOTATION, image.getReference().getTag());
+            }
+            Map<String, Object> entry = manifest.toDescriptor().toJson();
+            entry.put("annotations", annotations);
+            manifests.add(entry);
+        }
+
+        index.put("manifests", manifests);
+        Path temp = directory.resolve("index.json.tmp");
+        Files.write(temp, Json.writeBytes(index));
+        Files.move(temp, directory.resolve("index.json"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Map<String, Object> readIndex(Path directory) throws IOException {
+        Path indexFile = directory.resolve("index.json");
+        if (!Files.exists(indexFile)) {
+            Map<String, Object> index = new LinkedHashMap<>();
+            index.put("schemaVersion", 2L);
+            index.put("mediaType", Manifest.OCI_INDEX);
+            index.put("manifests", new ArrayList<>());
+            return index;
+        }
+        return Json.parseObject(Files.readAllBytes(indexFile));
+    }
+
+    private static void copyBlob(Path directory, BlobStore store, String digest) throws IOException {
+        store.materialize(digest, directory.resolve("blobs").resolve("sha256").resolve(Digests.hex(digest)));
+    }
+}
@@ -0,0 +1,181 @@
+package com.jit.ecr;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip on all cores, the way pigz does it: input is cut into fixed-size chunks that are deflated
+ * independently and written back in order as a single gzip member any gunzip can read. Each
+ * chunk is primed with the last 32 KiB of the one before it, so the ratio stays close to
+ * single-threaded gzip.
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream {
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final int level;
+    private final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private byte[] chunk;
+    private int count;
+    private byte[] dictionary;
+    private long totalIn;
+    private boolean finished;
+
+    public ParallelGzipOutputStream(OutputStream out) throws IOException {
+        this(out, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ParallelGzipOutputStream(OutputStream out, int threads, int chunkSize, int level) throws IOException {
+        super(out);
+        this.level = level;
+        this.chunk = new byte[chunkSize];
+        // Two chunks per thread keep every core busy while bounding memory
+        this.maxInFlight = threads * 2;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "gzip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (count == chunk.length) {
+                submit(false);
+            }
+            int copied = Math.min(length, chunk.length - count);
+            System.arraycopy(data, offset, chunk, count, copied);
+            count += copied;
+            offset += copied;
+            length -= copied;
+        }
+    }
+
+    private void submit(boolean last) throws IOException {
+        byte[] input = chunk;
+        int length = count;
+        byte[] preset = dictionary;
+        crc.update(input, 0, length);
+        totalIn += length;
+        inFlight.add(executor.submit(() -> deflate(input, length, preset, last)));
+        if (length >= DICTIONARY_SIZE) {
+            dictionary = Arrays.copyOfRange(input, length - DICTIONARY_SIZE, length);
+        }
+        chunk = new byte[chunk.length];
+        count = 0;
+        while (inFlight.size() >= maxInFlight) {
+            writeOldest();
+        }
+    }
+
+    /**
+     * Non-final chunks end with a sync flush, which byte-aligns the output without ending the
+     * deflate stream, so the pieces can simply be concatenated.
+     */
+    private byte[] deflate(byte[] input, int length, byte[] preset, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (preset != null) {
+                deflater.setDictionary(preset);
+            }
+            deflater.setInput(input, 0, length);
+            if (last) {
+                deflater.finish();
+            }
+            byte[] buffer = new byte[Math.max(1024, length + length / 1000 + 64)];
+            int size = 0;
+            while (true) {
+                int space = buffer.length - size;
+                int written = deflater.deflate(buffer, size, space, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                size += written;
+                // A sync flush is complete once it leaves room in the buffer
+                if (last ? deflater.finished() : written < space) {
+                    break;
+                }
+                if (size == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+            return Arrays.copyOf(buffer, size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeOldest() throws IOException {
+        try {
+            out.write(inFlight.removeFirst().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed", e.getCause());
+        }
+    }
+
+    /**
+     * Compresses what is buffered, writes the gzip trailer and flushes, leaving the underlying
+     * stream open.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        try {
+            submit(true);
+            while (!inFlight.isEmpty()) {
+                writeOldest();
+            }
+            writeIntLe(crc.getValue());
+            writeIntLe(totalIn);
+            out.flush();
+            finished = true;
+        } finally {
+            if (!finished) {
+                inFlight.forEach(future -> future.cancel(true));
+            }
+            executor.shutdown();
+        }
+    }
+
+    private void writeIntLe(long value) throws IOException {
+        out.write(new byte[] {(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)});
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // Flushing mid-chunk would cost ratio and parallelism; data is written as chunks complete
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.jit.ecr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Fetches blobs from other nodes running a {@link PeerServer} before going to the registry.
+ *
+ * <p>Peers come from a static list, a peers file, or both. The file holds one {@code host:port}
+ * or URL per line ({@code #} starts a comment) and is re-read on every refresh, so nodes can be
+ * added to a shared file while others are running. Rather than probing every peer for every
+ * blob, the digests each peer advertises are fetched together and cached for
+ * {@link #ADVERTISEMENT_TTL}; an unreachable peer simply advertises nothing until the next
+ * refresh.
+ */
+public class PeerClient {
+    public static final Duration ADVERTISEMENT_TTL = Duration.ofSeconds(30);
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(2);
+    private static final Duration LIST_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(10);
+
+    private final List<URI> staticPeers;
+    private final Path peersFile;
+    private final HttpClient httpClient;
+    private final Set<URI> unreachable = new HashSet<>();
+    private Map<URI, Set<String>> advertised = Map.of();
+    private long refreshedAt;
+    private boolean refreshed;
+
+    public PeerClient(List<URI> peers, Path peersFile) {
+        this.staticPeers = List.copyOf(peers);
+        this.peersFile = peersFile;
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+    }
+
+    /**
+     * Parses {@code host:port} or an {@code http://} URL into a peer base URI.
+     */
+    public static URI parsePeer(String value) {
+        String peer = value.trim();
+        if (!peer.contains("://")) {
+            peer = "http://" + peer;
+        }
+        try {
+            URI uri = URI.create(peer.endsWith("/") ? peer : peer + "/");
+            if (uri.getHost() == null || !"http".equals(uri.getScheme())) {
+                throw new IllegalArgumentException();
+            }
+            return uri;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid peer: " + value);
+        }
+    }
+
+    /**
+     * The static peers followed by those currently listed in the peers file.
+     */
+    public List<URI> getPeers() throws IOException {
+        Set<URI> peers = new LinkedHashSet<>(staticPeers);
+        if (peersFile != null) {
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(peersFile, StandardCharsets.UTF_8);
+            } catch (NoSuchFileException e) {
+                lines = List.of();
+            }
+            for (String line : lines) {
+                int comment = line.indexOf('#');
+                String peer = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                if (peer.isEmpty()) {
+                    continue;
+                }
+                try {
+                    peers.add(parsePeer(peer));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Ignoring " + e.getMessage() + " in " + peersFile);
+                }
+            }
+        }
+        return new ArrayList<>(peers);
+    }
+
+    /**
+     * Asks every peer for the digests it holds, all at once.
+     */
+    public synchronized void refresh() throws InterruptedException {
+        List<URI> peers;
+        try {
+            peers = getPeers();
+        } catch (IOException e) {
+            System.err.println("Could not read peers file " + peersFile + ": " + e.getMessage());
+            peers = new ArrayList<>(staticPeers);
+        }
+
+        Map<URI, CompletableFuture<HttpResponse<byte[]>>> listings = new HashMap<>();
+        for (URI peer : peers) {
+            HttpRequest request = HttpRequest.newBuilder(peer.resolve(PeerServer.BLOBS_PATH.substring(1)))
+                .timeout(LIST_TIMEOUT)
+                .GET()
+                .build();
+            listings.put(peer, httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()));
+        }
+
+        Map<URI, Set<String>> result = new HashMap<>();
+        for (Map.Entry<URI, CompletableFuture<HttpResponse<byte[]>>> listing : listings.entrySet()) {
+            URI peer = listing.getKey();
+            try {
+                HttpResponse<byte[]> response = listing.getValue().get();
+                if (response.statusCode() != 200) {
+                    throw new IOException("HTTP " + response.statusCode());
+                }
+                Set<String> digests = new HashSet<>();
+                for (Object digest : Json.array(Json.parseObject(response.body()).get("digests"))) {
+                    digests.add(digest.toString());
+                }
+                result.put(peer, digests);
+                if (unreachable.remove(peer)) {
+                    System.out.println("Peer " + peer + " is reachable again");
+                }
+            } catch (ExecutionException | IOException | IllegalArgumentException e) {
+                // Logged once per outage; a peer that is down or still starting is routine
+                if (unreachable.add(peer)) {
+                    Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+                    System.out.println("Peer " + peer + " unavailable: " + cause);
+                }
+            }
+        }
+        advertised = result;
+        refreshedAt = System.nanoTime();
+        refreshed = true;
+    }
+
+    /**
+     * Peers advertising {@code digest}, in random order so a popular blob is spread over all the
+     * nodes that have it. Refreshes the advertisements first if they are older than
+     * {@link #ADVERTISEMENT_TTL}.
+     */
+    public List<URI> peersWith(String digest) throws InterruptedException {
+        Map<URI, Set<String>> current;
+        synchronized (this) {
+            if (!refreshed || System.nanoTime() - refreshedAt > ADVERTISEMENT_TTL.toNanos()) {
+                refresh();
+            }
+            current = advertised;
+        }
+        List<URI> peers = new ArrayList<>();
+        for (Map.Entry<URI, Set<String>> peer : current.entrySet()) {
+            if (peer.getValue().contains(digest)) {
+                peers.add(peer.getKey());
+            }
+        }
+        Collections.shuffle(peers, ThreadLocalRandom.current());
+        return peers;
+    }
+
+    /**
+     * Opens a blob on {@code peer} starting at {@code offset}. As with the registry, the body
+     * starts at 0 if the peer ignored the range. Nothing is verified here; the caller commits
+     * through {@link BlobStore.PartialBlob}, which checks the digest.
+     */
+    public RegistryClient.BlobResponse openBlob(URI peer, String digest, long offset) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(peer.resolve(PeerServer.BLOBS_PATH.substring(1) + "/" + digest))
+            .timeout(REQUEST_TIMEOUT)
+            .GET();
+        if (offset > 0) {
+            request.header("Range", "bytes=" + offset + "-");
+        }
+        HttpResponse<InputStream> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() == 206
+                && response.headers().firstValue("Content-Range").orElse("").startsWith("bytes " + offset + "-")) {
+            return new RegistryClient.BlobResponse(response.body(), offset);
+        }
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException("HTTP " + response.statusCode());
+        }
+        return new RegistryClient.BlobResponse(response.body(), 0);
+    }
+}
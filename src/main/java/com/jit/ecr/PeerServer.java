@@ -0,0 +1,149 @@
+package com.jit.ecr;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the committed blobs of a {@link BlobStore} to other nodes on the network, so a batch
+ * of runners pulls each layer from ECR once and from each other after that.
+ *
+ * <p>{@code GET /blobs} advertises the digests held as {@code {"digests": [...]}}, and
+ * {@code GET /blobs/<digest>} returns a blob, honouring {@code Range: bytes=<n>-} so a
+ * {@link PeerClient} can resume. Only complete blobs are served and the receiver verifies the
+ * digest, so a peer can never hand out anything but the content that was asked for.
+ */
+public class PeerServer implements AutoCloseable {
+    public static final String BLOBS_PATH = "/blobs";
+    private static final int THREADS = 16;
+
+    private final BlobStore store;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public PeerServer(BlobStore store, InetSocketAddress address) throws IOException {
+        this.store = store;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "peer-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext(BLOBS_PATH, exchange -> {
+            try {
+                handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    /**
+     * Starts serving on all interfaces; port 0 picks a free one.
+     */
+    public static PeerServer start(BlobStore store, int port) throws IOException {
+        PeerServer server = new PeerServer(store, new InetSocketAddress(port));
+        server.server.start();
+        return server;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+        String path = exchange.getRequestURI().getPath();
+        if (path.equals(BLOBS_PATH) || path.equals(BLOBS_PATH + "/")) {
+            Map<String, Object> advertisement = new LinkedHashMap<>();
+            advertisement.put("digests", store.list());
+            byte[] body = Json.writeBytes(advertisement);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, method.equals("HEAD") ? -1 : body.length);
+            if (method.equals("GET")) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            return;
+        }
+
+        String digest = path.substring(BLOBS_PATH.length() + 1);
+        try {
+            Digests.validate(digest);
+        } catch (IllegalArgumentException e) {
+            exchange.sendResponseHeaders(400, -1);
+            return;
+        }
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(store.path(digest), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        try (channel) {
+            long size = channel.size();
+            long offset = parseRangeStart(exchange.getRequestHeaders().getFirst("Range"));
+            if (offset >= size && offset > 0) {
+                exchange.getResponseHeaders().add("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+            exchange.getResponseHeaders().add("Docker-Content-Digest", digest);
+            int status = 200;
+            if (offset > 0) {
+                status = 206;
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + offset + "-" + (size - 1) + "/" + size);
+            }
+            long length = size - offset;
+            // A zero length means chunked to HttpServer, so an empty blob is sent as "no body"
+            exchange.sendResponseHeaders(status, method.equals("HEAD") || length == 0 ? -1 : length);
+            if (method.equals("GET") && length > 0) {
+                try (InputStream in = Channels.newInputStream(channel.position(offset));
+                     OutputStream out = exchange.getResponseBody()) {
+                    in.transferTo(out);
+                }
+            }
+        }
+    }
+
+    /**
+     * The start of an open-ended {@code bytes=<n>-} range, or 0 for anything else, which is
+     * answered with the whole blob.
+     */
+    private static long parseRangeStart(String range) {
+        if (range == null || !range.startsWith("bytes=") || !range.endsWith("-")) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(range.substring("bytes=".length(), range.length() - 1)));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
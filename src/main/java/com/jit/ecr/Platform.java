@@ -0,0 +1,78 @@
+package com.jit.ecr;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Target platform used to pick a manifest out of a multi-arch image index.
+ */
+public final class Platform {
+    private final String os;
+    private final String architecture;
+    private final String variant;
+
+    public Platform(String os, String architecture, String variant) {
+        this.os = os;
+        this.architecture = architecture;
+        this.variant = variant;
+    }
+
+    /**
+     * Parses {@code os/arch[/variant]}, e.g. {@code linux/arm64/v8}.
+     */
+    public static Platform parse(String value) {
+        String[] parts = value.split("/");
+        if (parts.length < 2 || parts.length > 3) {
+            throw new IllegalArgumentException("Invalid platform: " + value);
+        }
+        return new Platform(parts[0], parts[1], parts.length == 3 ? parts[2] : null);
+    }
+
+    public static Platform current() {
+        String arch = System.getProperty("os.arch", "amd64").toLowerCase(Locale.ROOT);
+        switch (arch) {
+            case "x86_64":
+            case "amd64":
+                return new Platform("linux", "amd64", null);
+            case "aarch64":
+            case "arm64":
+                return new Platform("linux", "arm64", null);
+            default:
+                return new Platform("linux", arch, null);
+        }
+    }
+
+    public static Platform fromJson(Map<String, Object> json) {
+        if (json == null) {
+            return null;
+        }
+        return new Platform(Json.string(json, "os"), Json.string(json, "architecture"), Json.string(json, "variant"));
+    }
+
+    public boolean matches(Platform candidate) {
+        if (candidate == null) {
+            return false;
+        }
+        if (!os.equals(candidate.os) || !architecture.equals(candidate.architecture)) {
+            return false;
+        }
+        return variant == null || variant.equals(candidate.variant);
+    }
+
+    public String getOs() {
+        return os;
+    }
+
+    public String getArchitecture() {
+        return architecture;
+    }
+
+    public String getVariant() {
+        return variant;
+    }
+
+    @Override
+    public String toString() {
+        return os + "/" + architecture + (variant != null ? "/" + variant : "");
+    }
+}
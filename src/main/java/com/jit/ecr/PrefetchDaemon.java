@@ -0,0 +1,252 @@
+package com.jit.ecr;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Stays resident and keeps a set of images warm. Each poll resolves the digests of all tags in
+ * one batched lookup; images whose digest differs from what was last made ready are handed to
+ * the {@link Prefetcher}. Polls are spread with jitter so a fleet of nodes does not hit ECR at
+ * the same moment.
+ *
+ * <p>The current state is written to a status file after every change and, when a port is
+ * given, served as JSON from {@code GET /status} on the loopback interface.
+ */
+public class PrefetchDaemon {
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(5);
+    public static final int PREFETCH_PRIORITY = -1;
+    private static final double JITTER = 0.2;
+
+    /**
+     * Makes the changed images ready locally and returns the names that succeeded.
+     */
+    public interface Prefetcher {
+        List<String> prefetch(Map<String, String> changedDigests) throws Exception;
+    }
+
+    private final Map<String, String> imageUris;
+    private final Function<List<String>, Map<String, String>> digestResolver;
+    private final Prefetcher prefetcher;
+    private final Duration interval;
+    private final Path statusFile;
+    private final Map<String, String> remoteDigests = new LinkedHashMap<>();
+    private final Map<String, String> readyDigests = new LinkedHashMap<>();
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private final Instant startedAt = Instant.now();
+
+    private volatile boolean stopping;
+    private volatile Thread runner;
+    private HttpServer statusServer;
+    private String state = "starting";
+    private Instant lastPollAt;
+    private Instant nextPollAt;
+    private String lastError;
+
+    /**
+     * @param imageUris image name to URI
+     * @param digestResolver image URIs to their current remote digests
+     */
+    public PrefetchDaemon(Map<String, String> imageUris, Function<List<String>, Map<String, String>> digestResolver,
+            Prefetcher prefetcher, Duration interval, Path statusFile) {
+        this.imageUris = new LinkedHashMap<>(imageUris);
+        this.digestResolver = digestResolver;
+        this.prefetcher = prefetcher;
+        this.interval = interval;
+        this.statusFile = statusFile;
+    }
+
+    public static Path defaultStatusFile() {
+        return BlobStore.defaultRoot().resolve("daemon-status.json");
+    }
+
+    /**
+     * Serves the status on {@code 127.0.0.1:<port>}; port 0 picks a free one. When metrics are
+     * given they are exposed in Prometheus text format at {@code /metrics}.
+     */
+    public synchronized HttpServer startStatusServer(int port, PullMetrics metrics) throws IOException {
+        statusServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        statusServer.createContext("/status", exchange ->
+            respond(exchange, "application/json", Json.writeBytes(status())));
+        if (metrics != null) {
+            statusServer.createContext("/metrics", exchange ->
+                respond(exchange, "text/plain; version=0.0.4", metrics.prometheus().getBytes(StandardCharsets.UTF_8)));
+        }
+        statusServer.start();
+        return statusServer;
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Polls until {@link #stop()} is called. A failed poll or prefetch is logged and retried at
+     * the next interval.
+     */
+    public void run() {
+        runner = Thread.currentThread();
+        try {
+            while (!stopping) {
+                poll();
+                Duration wait = jittered(interval);
+                setState("idle", Instant.now().plus(wait));
+                TimeUnit.MILLISECONDS.sleep(wait.toMillis());
+            }
+        } catch (InterruptedException e) {
+            // stop() interrupts a sleeping or prefetching daemon; partial blobs resume next time
+        } finally {
+            setState("stopped", null);
+            if (statusServer != null) {
+                statusServer.stop(0);
+            }
+            terminated.countDown();
+        }
+    }
+
+    private void poll() throws InterruptedException {
+        setState("polling", null);
+        Map<String, String> changed = new LinkedHashMap<>();
+        try {
+            Map<String, String> digests = digestResolver.apply(new ArrayList<>(imageUris.values()));
+            synchronized (this) {
+                lastPollAt = Instant.now();
+                lastError = null;
+                for (Map.Entry<String, String> image : imageUris.entrySet()) {
+                    String digest = digests.get(image.getValue());
+                    if (digest == null) {
+                        continue;
+                    }
+                    remoteDigests.put(image.getKey(), digest);
+                    if (!digest.equals(readyDigests.get(image.getKey()))) {
+                        changed.put(image.getKey(), digest);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            recordError("Digest lookup failed: " + e.getMessage());
+            return;
+        }
+        if (changed.isEmpty() || stopping) {
+            return;
+        }
+
+        System.out.println("Prefetching " + changed.size() + " changed images: " + String.join(", ", changed.keySet()));
+        setState("prefetching", null);
+        try {
+            List<String> ready = prefetcher.prefetch(changed);
+            synchronized (this) {
+                for (String name : ready) {
+                    readyDigests.put(name, changed.get(name));
+                }
+            }
+            if (ready.size() < changed.size()) {
+                recordError((changed.size() - ready.size()) + " images could not be prefetched");
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            recordError("Prefetch failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Asks the daemon to finish. The current sleep or prefetch is interrupted.
+     */
+    public void stop() {
+        stopping = true;
+        Thread current = runner;
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    public boolean awaitTermination(Duration timeout) throws InterruptedException {
+        return terminated.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    static Duration jittered(Duration interval) {
+        double factor = 1 + ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+        return Duration.ofMillis((long) (interval.toMillis() * factor));
+    }
+
+    private void recordError(String message) {
+        System.err.println(message);
+        synchronized (this) {
+            lastError = message;
+        }
+        writeStatus();
+    }
+
+    private void setState(String state, Instant nextPollAt) {
+        synchronized (this) {
+            this.state = state;
+            this.nextPollAt = nextPollAt;
+        }
+        writeStatus();
+    }
+
+    /**
+     * The state as written to the status file. {@code ready} is true for an image once its
+     * current remote digest has been prefetched.
+     */
+    public synchronized Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("state", state);
+        status.put("pid", ProcessHandle.current().pid());
+        status.put("startedAt", startedAt.toString());
+        status.put("lastPollAt", lastPollAt != null ? lastPollAt.toString() : null);
+        status.put("nextPollAt", nextPollAt != null ? nextPollAt.toString() : null);
+        status.put("lastError", lastError);
+
+        Map<String, Object> images = new LinkedHashMap<>();
+        for (Map.Entry<String, String> image : imageUris.entrySet()) {
+            String remote = remoteDigests.get(image.getKey());
+            String ready = readyDigests.get(image.getKey());
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("uri", image.getValue());
+            entry.put("remoteDigest", remote);
+            entry.put("readyDigest", ready);
+            entry.put("ready", remote != null && remote.equals(ready));
+            images.put(image.getKey(), entry);
+        }
+        status.put("images", images);
+        return status;
+    }
+
+    private void writeStatus() {
+        if (statusFile == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(statusFile.toAbsolutePath().getParent());
+            Path temp = statusFile.resolveSibling(statusFile.getFileName() + ".tmp");
+            Files.write(temp, Json.writeBytes(status()));
+            Files.move(temp, statusFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Could not write daemon status " + statusFile + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.jit.ecr;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time limits for a run: a deadline for the whole run and a timeout per image, either of which
+ * may be absent. Work still running when its deadline passes is interrupted and reported as
+ * failed, so one straggler cannot hold up everything else.
+ */
+public final class PullDeadlines {
+    public static final PullDeadlines NONE = new PullDeadlines(null, null);
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "pull-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ThreadLocal<Timeout> CURRENT = new ThreadLocal<>();
+
+    private final Instant runDeadline;
+    private final Duration imageTimeout;
+
+    public PullDeadlines(Instant runDeadline, Duration imageTimeout) {
+        this.runDeadline = runDeadline;
+        this.imageTimeout = imageTimeout;
+    }
+
+    /**
+     * Deadlines for a run starting now; null leaves that limit off.
+     */
+    public static PullDeadlines start(Duration runTimeout, Duration imageTimeout) {
+        return new PullDeadlines(runTimeout != null ? Instant.now().plus(runTimeout) : null, imageTimeout);
+    }
+
+    public Instant getRunDeadline() {
+        return runDeadline;
+    }
+
+    public Duration getImageTimeout() {
+        return imageTimeout;
+    }
+
+    /**
+     * The deadline of an image whose pull starts now: its own timeout, capped by the run's
+     * deadline. Null if neither is set.
+     */
+    public Instant imageDeadline() {
+        Instant deadline = imageTimeout != null ? Instant.now().plus(imageTimeout) : null;
+        if (deadline == null || (runDeadline != null && runDeadline.isBefore(deadline))) {
+            return runDeadline;
+        }
+        return deadline;
+    }
+
+    /**
+     * Interrupts the calling thread if it is still inside the returned scope when
+     * {@code deadline} passes; a null deadline never fires. A deadline already in the past
+     * interrupts right away.
+     */
+    public static Timeout interruptAt(Instant deadline) {
+        Timeout timeout = new Timeout(Thread.currentThread(), deadline, CURRENT.get());
+        CURRENT.set(timeout);
+        return timeout;
+    }
+
+    /**
+     * Also closes {@code resource} when the calling thread's deadline passes. Needed for reads
+     * that ignore interrupts, such as an HttpClient response body, which swallows them and keeps
+     * waiting. Does nothing outside an {@link #interruptAt} scope.
+     */
+    public static void closeOnExpiry(Closeable resource) {
+        Timeout timeout = CURRENT.get();
+        if (timeout != null && !timeout.register(resource)) {
+            close(resource);
+        }
+    }
+
+    /**
+     * Whether the calling thread's deadline has passed. Unlike the interrupt this stays set, so
+     * retry loops can tell a deadline apart from an ordinary failure.
+     */
+    public static boolean isExpired() {
+        Timeout timeout = CURRENT.get();
+        return timeout != null && timeout.isExpired();
+    }
+
+    private static void close(Closeable resource) {
+        try {
+            resource.close();
+        } catch (IOException e) {
+            // The reader fails either way
+        }
+    }
+
+    /**
+     * A running deadline from {@link #interruptAt}. Closing it disarms the timer and, if it
+     * fired, clears the interrupt so a pooled thread does not carry it into its next task.
+     */
+    public static final class Timeout implements AutoCloseable {
+        private final Thread thread;
+        private final Timeout outer;
+        private final ScheduledFuture<?> timer;
+        private final List<Closeable> resources = new ArrayList<>();
+        private boolean expired;
+        private boolean closed;
+
+        private Timeout(Thread thread, Instant deadline, Timeout outer) {
+            this.thread = thread;
+            this.outer = outer;
+            this.timer = deadline == null ? null
+                : TIMER.schedule(this::expire, Math.max(0, Duration.between(Instant.now(), deadline).toMillis()),
+                    TimeUnit.MILLISECONDS);
+        }
+
+        private void expire() {
+            List<Closeable> open;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                expired = true;
+                thread.interrupt();
+                open = new ArrayList<>(resources);
+                resources.clear();
+            }
+            open.forEach(PullDeadlines::close);
+        }
+
+        private synchronized boolean register(Closeable resource) {
+            if (expired) {
+                return false;
+            }
+            resources.add(resource);
+            return true;
+        }
+
+        public synchronized boolean isExpired() {
+            return expired;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                closed = true;
+                resources.clear();
+            }
+            CURRENT.set(outer);
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            if (isExpired()) {
+                Thread.interrupted();
+            }
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package com.jit.ecr;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timers and byte counters for the pull hot path: phases (auth, manifest resolve, download,
+ * load), pipeline stages, each image, and each blob with its time to first byte, throughput and
+ * retries.
+ *
+ * <p>Per-image and per-blob details feed the JSON report of a run and are cleared with
+ * {@link #clearDetails()}; the phase, stage and total counters only grow, so a long-running
+ * daemon can expose them in Prometheus text format.
+ */
+public class PullMetrics {
+    private final Map<String, PhaseTotals> phases = new LinkedHashMap<>();
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+    private final Map<String, ImageMetrics> images = new LinkedHashMap<>();
+    private final Map<String, BlobMetrics> blobs = new LinkedHashMap<>();
+    private final Map<String, AtomicLong> imageResults = new LinkedHashMap<>();
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private final AtomicLong peerBytes = new AtomicLong();
+    private final AtomicLong blobsDownloaded = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong ttfbNanos = new AtomicLong();
+    private final AtomicLong ttfbCount = new AtomicLong();
+    private Instant startedAt = Instant.now();
+
+    private static final class PhaseTotals {
+        private long count;
+        private long nanos;
+    }
+
+    /**
+     * A running phase timer; closing it records the elapsed time.
+     */
+    public final class Phase implements AutoCloseable {
+        private final String name;
+        private final long start = System.nanoTime();
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            recordPhase(name, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * One stage of the transfer pipeline, summed over every blob or image passing through it.
+     * Busy time is time spent doing the stage's own work; wait time is time spent blocked on a
+     * neighbouring stage. The stage with high busy and low wait time is the bottleneck.
+     */
+    public static final class Stage {
+        private final String name;
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicInteger queueDepth = new AtomicInteger();
+        private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        public void recordWork(long bytes, long nanos) {
+            items.incrementAndGet();
+            this.bytes.addAndGet(bytes);
+            busyNanos.addAndGet(nanos);
+        }
+
+        public void recordWait(long nanos) {
+            waitNanos.addAndGet(nanos);
+        }
+
+        /**
+         * Counts an item entering the stage's input queue.
+         */
+        public void enqueued() {
+            int depth = queueDepth.incrementAndGet();
+            maxQueueDepth.accumulateAndGet(depth, Math::max);
+        }
+
+        public void dequeued() {
+            queueDepth.decrementAndGet();
+        }
+
+        public int getQueueDepth() {
+            return queueDepth.get();
+        }
+
+        private Map<String, Object> toJson() {
+            Map<String, Object> json = new LinkedHashMap<>();
+            long busy = busyNanos.get();
+            json.put("items", items.get());
+            json.put("bytes", bytes.get());
+            json.put("busyMillis", TimeUnit.NANOSECONDS.toMillis(busy));
+            json.put("waitMillis", TimeUnit.NANOSECONDS.toMillis(waitNanos.get()));
+            json.put("bytesPerSecond", busy > 0 ? (long) (bytes.get() / (busy / 1e9)) : null);
+            json.put("queueDepth", queueDepth.get());
+            json.put("maxQueueDepth", maxQueueDepth.get());
+            return json;
+        }
+    }
+
+    /**
+     * Timings of one image. Durations are in milliseconds, -1 when the step did not happen.
+     */
+    public static final class ImageMetrics {
+        private final String name;
+        private String uri;
+        private String result;
+        private String error;
+        private long resolveMillis = -1;
+        private long readyMillis = -1;
+        private long loadMillis = -1;
+        private long bytes;
+        private int layers;
+        private int reusedLayers;
+
+        private ImageMetrics(String name) {
+            this.name = name;
+        }
+
+        public synchronized void setUri(String uri) {
+            this.uri = uri;
+        }
+
+        public synchronized void setResolveMillis(long resolveMillis) {
+            this.resolveMillis = resolveMillis;
+        }
+
+        /**
+         * Time from the start of the run until all of the image's blobs were present.
+         */
+        public synchronized void setReadyMillis(long readyMillis) {
+            this.readyMillis = readyMillis;
+        }
+
+        public synchronized void setLoadMillis(long loadMillis) {
+            this.loadMillis = loadMillis;
+        }
+
+        public synchronized void setTransfer(long bytes, int layers, int reusedLayers) {
+            this.bytes = bytes;
+            this.layers = layers;
+            this.reusedLayers = reusedLayers;
+        }
+
+        private synchronized Map<String, Object> toJson() {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("name", name);
+            json.put("uri", uri);
+            json.put("result", result);
+            json.put("error", error);
+            json.put("resolveMillis", resolveMillis);
+            json.put("readyMillis", readyMillis);
+            json.put("loadMillis", loadMillis);
+            json.put("bytes", bytes);
+            json.put("layers", layers);
+            json.put("reusedLayers", reusedLayers);
+            return json;
+        }
+    }
+
+    /**
+     * One blob download across all of its attempts.
+     */
+    public static final class BlobMetrics {
+        private final String digest;
+        private final long size;
+        private final long started = System.nanoTime();
+        private long resumedFrom;
+        private long ttfbMillis = -1;
+        private long durationMillis = -1;
+        private long bytes;
+        private String peer;
+        private long peerBytes;
+        private int attempts;
+        private int hedges;
+        private boolean hedgeWon;
+        private String error;
+
+        private BlobMetrics(String digest, long size) {
+            this.digest = digest;
+            this.size = size;
+        }
+
+        private synchronized Map<String, Object> toJson() {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("digest", digest);
+            json.put("size", size);
+            json.put("bytes", bytes);
+            json.put("peer", peer);
+            json.put("peerBytes", peerBytes);
+            json.put("resumedFrom", resumedFrom);
+            json.put("attempts", attempts);
+            json.put("hedges", hedges);
+            json.put("hedgeWon", hedgeWon);
+            json.put("ttfbMillis", ttfbMillis);
+            json.put("durationMillis", durationMillis);
+            json.put("bytesPerSecond", durationMillis > 0 ? (bytes + peerBytes) * 1000 / durationMillis : null);
+            json.put("error", error);
+            return json;
+        }
+    }
+
+    public Phase phase(String name) {
+        return new Phase(name);
+    }
+
+    public synchronized void recordPhase(String name, long nanos) {
+        PhaseTotals totals = phases.computeIfAbsent(name, k -> new PhaseTotals());
+        totals.count++;
+        totals.nanos += nanos;
+    }
+
+    public synchronized Stage stage(String name) {
+        return stages.computeIfAbsent(name, Stage::new);
+    }
+
+    public synchronized ImageMetrics image(String name) {
+        return images.computeIfAbsent(name, ImageMetrics::new);
+    }
+
+    /**
+     * Records the outcome of an image: {@code pulled}, {@code up_to_date} or {@code failed}.
+     */
+    public void imageResult(String name, String result, String error) {
+        ImageMetrics image = image(name);
+        synchronized (image) {
+            image.result = result;
+            image.error = error;
+        }
+        synchronized (this) {
+            imageResults.computeIfAbsent(result, k -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    public synchronized BlobMetrics blobStarted(String digest, long size, long resumedFrom) {
+        BlobMetrics blob = new BlobMetrics(digest, size);
+        blob.resumedFrom = resumedFrom;
+        blobs.put(digest, blob);
+        return blob;
+    }
+
+    /**
+     * Records that an attempt got its response headers after {@code ttfbNanos}.
+     */
+    public void blobAttempt(BlobMetrics blob, long ttfbNanos) {
+        boolean retry;
+        synchronized (blob) {
+            blob.attempts++;
+            retry = blob.attempts > 1;
+            if (blob.ttfbMillis < 0) {
+                blob.ttfbMillis = TimeUnit.NANOSECONDS.toMillis(ttfbNanos);
+            }
+        }
+        if (retry) {
+            retries.incrementAndGet();
+        }
+        this.ttfbNanos.addAndGet(ttfbNanos);
+        ttfbCount.incrementAndGet();
+    }
+
+    public void blobBytes(BlobMetrics blob, long bytes) {
+        synchronized (blob) {
+            blob.bytes += bytes;
+        }
+        downloadedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Records that a stalled transfer of the blob was hedged with a second request.
+     */
+    public void blobHedged(BlobMetrics blob) {
+        synchronized (blob) {
+            blob.hedges++;
+        }
+        hedges.incrementAndGet();
+    }
+
+    /**
+     * Records that the hedged request finished before the transfer it was racing.
+     */
+    public void blobHedgeWon(BlobMetrics blob) {
+        synchronized (blob) {
+            blob.hedgeWon = true;
+        }
+        hedgeWins.incrementAndGet();
+    }
+
+    /**
+     * Counts bytes received from a peer node rather than the registry.
+     */
+    public void blobPeerBytes(BlobMetrics blob, String peer, long bytes) {
+        synchronized (blob) {
+            blob.peer = peer;
+            blob.peerBytes += bytes;
+        }
+        peerBytes.addAndGet(bytes);
+    }
+
+    public void blobFinished(BlobMetrics blob, String error) {
+        synchronized (blob) {
+            blob.durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - blob.started);
+            blob.error = error;
+        }
+        if (error == null) {
+            blobsDownloaded.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts bytes transferred outside the blob downloader, e.g. by the Docker daemon.
+     */
+    public void recordBytes(long bytes) {
+        downloadedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Drops per-image and per-blob details so the next report only covers the next run.
+     */
+    public synchronized void clearDetails() {
+        images.clear();
+        blobs.clear();
+        startedAt = Instant.now();
+    }
+
+    public synchronized Map<String, Object> report() {
+        Instant finishedAt = Instant.now();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("startedAt", startedAt.toString());
+        report.put("finishedAt", finishedAt.toString());
+        report.put("durationMillis", finishedAt.toEpochMilli() - startedAt.toEpochMilli());
+        report.put("downloadedBytes", downloadedBytes.get());
+        report.put("peerBytes", peerBytes.get());
+        report.put("retries", retries.get());
+        report.put("hedges", hedges.get());
+        report.put("hedgeWins", hedgeWins.get());
+
+        Map<String, Object> phaseJson = new LinkedHashMap<>();
+        for (Map.Entry<String, PhaseTotals> phase : phases.entrySet()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("count", phase.getValue().count);
+            entry.put("millis", TimeUnit.NANOSECONDS.toMillis(phase.getValue().nanos));
+            phaseJson.put(phase.getKey(), entry);
+        }
+        report.put("phases", phaseJson);
+
+        Map<String, Object> stageJson = new LinkedHashMap<>();
+        for (Stage stage : stages.values()) {
+            stageJson.put(stage.name, stage.toJson());
+        }
+        report.put("stages", stageJson);
+
+        Map<String, Object> imageJson = new LinkedHashMap<>();
+        for (ImageMetrics image : images.values()) {
+            imageJson.put(image.name, image.toJson());
+        }
+        report.put("images", imageJson);
+
+        Map<String, Object> blobJson = new LinkedHashMap<>();
+        for (BlobMetrics blob : blobs.values()) {
+            blobJson.put(blob.digest, blob.toJson());
+        }
+        report.put("blobs", blobJson);
+        return report;
+    }
+
+    public void writeReport(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, Json.writeBytes(report()));
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * The cumulative counters in Prometheus text exposition format.
+     */
+    public synchronized String prometheus() {
+        StringBuilder out = new StringBuilder();
+        out.append("# HELP ecr_puller_phase_seconds_total Time spent per pull phase.\n");
+        out.append("# TYPE ecr_puller_phase_seconds_total counter\n");
+        for (Map.Entry<String, PhaseTotals> phase : phases.entrySet()) {
+            out.append("ecr_puller_phase_seconds_total{phase=\"").append(phase.getKey()).append("\"} ")
+                .append(seconds(phase.getValue().nanos)).append('\n');
+        }
+        out.append("# HELP ecr_puller_phase_runs_total Number of times each pull phase ran.\n");
+        out.append("# TYPE ecr_puller_phase_runs_total counter\n");
+        for (Map.Entry<String, PhaseTotals> phase : phases.entrySet()) {
+            out.append("ecr_puller_phase_runs_total{phase=\"").append(phase.getKey()).append("\"} ")
+                .append(phase.getValue().count).append('\n');
+        }
+        out.append("# HELP ecr_puller_stage_bytes_total Bytes processed per pipeline stage.\n");
+        out.append("# TYPE ecr_puller_stage_bytes_total counter\n");
+        for (Stage stage : stages.values()) {
+            out.append("ecr_puller_stage_bytes_total{stage=\"").append(stage.name).append("\"} ")
+                .append(stage.bytes.get()).append('\n');
+        }
+        out.append("# HELP ecr_puller_stage_busy_seconds_total Time each pipeline stage spent working.\n");
+        out.append("# TYPE ecr_puller_stage_busy_seconds_total counter\n");
+        for (Stage stage : stages.values()) {
+            out.append("ecr_puller_stage_busy_seconds_total{stage=\"").append(stage.name).append("\"} ")
+                .append(seconds(stage.busyNanos.get())).append('\n');
+        }
+        out.append("# HELP ecr_puller_stage_wait_seconds_total Time each pipeline stage spent blocked on a neighbour.\n");
+        out.append("# TYPE ecr_puller_stage_wait_seconds_total counter\n");
+        for (Stage stage : stages.values()) {
+            out.append("ecr_puller_stage_wait_seconds_total{stage=\"").append(stage.name).append("\"} ")
+                .append(seconds(stage.waitNanos.get())).append('\n');
+        }
+        out.append("# HELP ecr_puller_stage_queue_depth Items waiting in each pipeline stage's input queue.\n");
+        out.append("# TYPE ecr_puller_stage_queue_depth gauge\n");
+        for (Stage stage : stages.values()) {
+            out.append("ecr_puller_stage_queue_depth{stage=\"").append(stage.name).append("\"} ")
+                .append(stage.queueDepth.get()).append('\n');
+        }
+        out.append("# HELP ecr_puller_images_total Images handled, by result.\n");
+        out.append("# TYPE ecr_puller_images_total counter\n");
+        for (Map.Entry<String, AtomicLong> result : imageResults.entrySet()) {
+            out.append("ecr_puller_images_total{result=\"").append(result.getKey()).append("\"} ")
+                .append(result.getValue().get()).append('\n');
+        }
+        counter(out, "ecr_puller_downloaded_bytes_total", "Bytes downloaded from the registry.", downloadedBytes.get());
+        counter(out, "ecr_puller_peer_bytes_total", "Bytes fetched from peer nodes instead of the registry.", peerBytes.get());
+        counter(out, "ecr_puller_blobs_downloaded_total", "Blobs downloaded and verified.", blobsDownloaded.get());
+        counter(out, "ecr_puller_blob_retries_total", "Blob download attempts after the first.", retries.get());
+        counter(out, "ecr_puller_blob_hedges_total", "Hedged requests started for stalled blob transfers.", hedges.get());
+        counter(out, "ecr_puller_blob_hedge_wins_total", "Hedged requests that finished before the stalled transfer.",
+            hedgeWins.get());
+        out.append("# HELP ecr_puller_blob_ttfb_seconds Time to first byte of blob requests.\n");
+        out.append("# TYPE ecr_puller_blob_ttfb_seconds summary\n");
+        out.append("ecr_puller_blob_ttfb_seconds_sum ").append(seconds(ttfbNanos.get())).append('\n');
+        out.append("ecr_puller_blob_ttfb_seconds_count ").append(ttfbCount.get()).append('\n');
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e9);
+    }
+}
@@ -0,0 +1,492 @@
+package com.jit.ecr;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command-line options. Anything that does not start with {@code --} is an image name.
+ */
+public class PullOptions {
+    public enum Engine { DOCKER, NATIVE }
+
+    public enum Output { DOCKER, OCI, BUNDLE }
+
+    public enum Threads { PLATFORM, VIRTUAL }
+
+    private Engine engine = Engine.DOCKER;
+    private Output output = Output.DOCKER;
+    private Path ociDirectory = Paths.get("oci-layout");
+    private Path exportFile = Paths.get("images.tar.gz");
+    private Path importFile;
+    private Platform platform = Platform.current();
+    private boolean force;
+    private boolean check;
+    private boolean dockerCli;
+    private boolean daemon;
+    private Duration pollInterval = PrefetchDaemon.DEFAULT_INTERVAL;
+    private Path statusFile = PrefetchDaemon.defaultStatusFile();
+    private int statusPort = -1;
+    private Path reportFile = BlobStore.defaultRoot().resolve("pull-report.json");
+    private long diskBudget = -1;
+    private Duration timeout;
+    private Duration imageTimeout;
+    private int peerPort = -1;
+    private final List<URI> peers = new ArrayList<>();
+    private Path peersFile;
+    private ConcurrencyLimits concurrencyLimits = ConcurrencyLimits.defaults();
+    private Path catalogFile;
+    private Duration resolveTtl = TagDigestCache.DEFAULT_TTL;
+    private boolean all;
+    private final List<String> images = new ArrayList<>();
+    private final List<String> groups = new ArrayList<>();
+    private final List<String> priorityImages = new ArrayList<>();
+
+    public static PullOptions parse(String[] args) {
+        PullOptions options = new PullOptions();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                options.images.add(arg);
+                continue;
+            }
+
+            if (arg.equals("--force")) {
+                options.force = true;
+                continue;
+            }
+            if (arg.equals("--check")) {
+                options.check = true;
+                continue;
+            }
+            if (arg.equals("--docker-cli")) {
+                options.dockerCli = true;
+                continue;
+            }
+            if (arg.equals("--daemon")) {
+                options.daemon = true;
+                continue;
+            }
+            if (arg.equals("--all")) {
+                options.all = true;
+                continue;
+            }
+
+            String name = arg;
+            String value = null;
+            int equals = arg.indexOf('=');
+            if (equals > 0) {
+                name = arg.substring(0, equals);
+                value = arg.substring(equals + 1);
+            }
+
+            switch (name) {
+                case "--engine":
+                    options.engine = parseEnum(Engine.class, name, requireValue(name, value, args, i));
+                    break;
+                case "--output":
+                    options.output = parseEnum(Output.class, name, requireValue(name, value, args, i));
+                    break;
+                case "--oci-dir":
+                    options.ociDirectory = Paths.get(requireValue(name, value, args, i));
+                    options.output = Output.OCI;
+                    break;
+                case "--export":
+                    options.exportFile = Paths.get(requireValue(name, value, args, i));
+                    options.output = Output.BUNDLE;
+                    break;
+                case "--import":
+                    options.importFile = Paths.get(requireValue(name, value, args, i));
+                    break;
+                case "--platform":
+                    options.platform = Platform.parse(requireValue(name, value, args, i));
+                    break;
+                case "--concurrency":
+                    options.concurrencyLimits = options.concurrencyLimits.withFixed(parseCount(name, requireValue(name, value, args, i)));
+                    break;
+                case "--min-concurrency":
+                    options.concurrencyLimits = options.concurrencyLimits.withMin(parseCount(name, requireValue(name, value, args, i)));
+                    break;
+                case "--max-concurrency":
+                    options.concurrencyLimits = options.concurrencyLimits.withMax(parseCount(name, requireValue(name, value, args, i)));
+                    break;
+                case "--threads":
+                    options.concurrencyLimits = options.concurrencyLimits.withVirtualThreads(
+                        parseEnum(Threads.class, name, requireValue(name, value, args, i)) == Threads.VIRTUAL);
+                    break;
+                case "--disk-concurrency":
+                    options.concurrencyLimits = options.concurrencyLimits.withDiskConcurrency(parseCount(name, requireValue(name, value, args, i)));
+                    break;
+                case "--max-bandwidth":
+                    options.concurrencyLimits = options.concurrencyLimits.withMaxBytesPerSecond(
+                        ConcurrencyLimits.parseBytesPerSecond(requireValue(name, value, args, i)));
+                    break;
+                case "--poll-interval":
+                    options.pollInterval = parseDuration(name, requireValue(name, value, args, i));
+                    break;
+                case "--status-file":
+                    options.statusFile = Paths.get(requireValue(name, value, args, i));
+                    break;
+                case "--status-port":
+                    options.statusPort = parsePort(name, requireValue(name, value, args, i));
+                    break;
+                case "--report":
+                    options.reportFile = Paths.get(requireValue(name, value, args, i));
+                    break;
+                case "--timeout":
+                    options.timeout = parseDuration(name, requireValue(name, value, args, i));
+                    break;
+                case "--image-timeout":
+                    options.imageTimeout = parseDuration(name, requireValue(name, value, args, i));
+                    break;
+                case "--disk-budget":
+                    options.diskBudget = parseSize(name, requireValue(name, value, args, i));
+                    break;
+                case "--peer-port":
+                    options.peerPort = parsePort(name, requireValue(name, value, args, i));
+                    break;
+                case "--peers":
+                    for (String peer : requireValue(name, value, args, i).split(",")) {
+                        if (!peer.isBlank()) {
+                            options.peers.add(PeerClient.parsePeer(peer));
+                        }
+                    }
+                    break;
+                case "--peers-file":
+                    options.peersFile = Paths.get(requireValue(name, value, args, i));
+                    break;
+                case "--catalog":
+                    options.catalogFile = Paths.get(requireValue(name, value, args, i));
+                    break;
+                case "--group":
+                    for (String group : requireValue(name, value, args, i).split(",")) {
+                        if (!group.isBlank() && !options.groups.contains(group.trim())) {
+                            options.groups.add(group.trim());
+                        }
+                    }
+                    break;
+                case "--resolve-ttl":
+                    String ttl = requireValue(name, value, args, i);
+                    options.resolveTtl = ttl.trim().equals("0") ? Duration.ZERO : parseDuration(name, ttl);
+                    break;
+                case "--priority":
+                    for (String image : requireValue(name, value, args, i).split(",")) {
+                        if (!image.isBlank() && !options.priorityImages.contains(image.trim())) {
+                            options.priorityImages.add(image.trim());
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+            if (value == null) {
+                i++;
+            }
+        }
+
+        if (options.output != Output.DOCKER && options.engine != Engine.NATIVE) {
+            throw new IllegalArgumentException("--output " + options.output.name().toLowerCase(Locale.ROOT)
+                + " requires --engine native");
+        }
+        if (options.isPeerMode() && options.engine != Engine.NATIVE) {
+            throw new IllegalArgumentException("--peer-port, --peers and --peers-file require --engine native");
+        }
+        if (options.output == Output.BUNDLE && options.daemon) {
+            throw new IllegalArgumentException("--export cannot be combined with --daemon");
+        }
+        if (options.check && (options.force || options.daemon || options.output != Output.DOCKER)) {
+            throw new IllegalArgumentException("--check cannot be combined with --force, --daemon or --output");
+        }
+        if (options.importFile != null && (options.check || options.daemon || options.output != Output.DOCKER || options.isSelecting())) {
+            throw new IllegalArgumentException("--import takes no images and cannot be combined with --check, --daemon or --export");
+        }
+        return options;
+    }
+
+    private static String requireValue(String name, String value, String[] args, int index) {
+        if (value != null) {
+            return value;
+        }
+        if (index + 1 >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + name);
+        }
+        return args[index + 1];
+    }
+
+    private static int parseCount(String name, String value) {
+        try {
+            int count = Integer.parseInt(value);
+            if (count < 1) {
+                throw new NumberFormatException();
+            }
+            return count;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+    }
+
+    private static int parsePort(String name, String value) {
+        try {
+            int port = Integer.parseInt(value);
+            if (port < 0 || port > 65535) {
+                throw new NumberFormatException();
+            }
+            return port;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+    }
+
+    private static long parseSize(String name, String value) {
+        try {
+            long size = ConcurrencyLimits.parseBytesPerSecond(value);
+            if (size < 1) {
+                throw new IllegalArgumentException();
+            }
+            return size;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+    }
+
+    /**
+     * Parses {@code 90}, {@code 90s}, {@code 5m} or {@code 1h}; a bare number is seconds.
+     */
+    static Duration parseDuration(String name, String value) {
+        String number = value.trim().toLowerCase(Locale.ROOT);
+        long unitSeconds = 1;
+        if (number.endsWith("h")) {
+            unitSeconds = 3600;
+        } else if (number.endsWith("m")) {
+            unitSeconds = 60;
+        }
+        if (number.endsWith("h") || number.endsWith("m") || number.endsWith("s")) {
+            number = number.substring(0, number.length() - 1);
+        }
+        try {
+            long amount = Long.parseLong(number);
+            if (amount < 1) {
+                throw new NumberFormatException();
+            }
+            return Duration.ofSeconds(amount * unitSeconds);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String name, String value) {
+        try {
+            return Enum.valueOf(type, value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+    }
+
+    public static String usage() {
+        return String.join("\n",
+            "Usage: java -jar ecr-image-puller.jar [options] [image...]",
+            "",
+            "Options:",
+            "  --engine docker|native   Pull with the docker CLI (default) or the built-in registry client",
+            "  --output <mode>          docker loads native pulls (default), oci writes a layout, bundle an archive",
+            "  --oci-dir <path>         OCI layout directory (implies --output oci, default ./oci-layout)",
+            "  --export <file>          Write one OCI archive for air-gapped use (implies --output bundle,",
+            "                           default ./images.tar.gz); gzip-compressed on all cores if it ends in .gz",
+            "  --import <file|->        Stream a bundle from --export (or docker save) into Docker, then exit",
+            "  --platform <os/arch>     Platform to select from multi-arch images (default: this host)",
+            "  --catalog <path>         Image catalog to use instead of the built-in one (JSON, see README)",
+            "  --group <name,...>       Pull every image in these catalog groups, e.g. iac or sast,sca",
+            "  --all                    Pull every image in the catalog",
+            "  --resolve-ttl <time>     Reuse tag digests looked up within this long (default 1m, 0 disables)",
+            "  --check                  Only report which images are out of date, exit 1 if any are",
+            "  --force                  Pull even if the local image already matches the remote digest",
+            "  --docker-cli             Talk to Docker through the CLI instead of the Engine API socket",
+            "  --priority <img,...>     Pull these images first, in the given order; the rest go largest first",
+            "  --concurrency <n>        Fixed number of concurrent transfers",
+            "  --min-concurrency <n>    Floor for the adaptive transfer limit (default " + ConcurrencyLimits.DEFAULT_MIN + ")",
+            "  --max-concurrency <n>    Ceiling for the adaptive transfer limit (default: 4 per core, 8 to 64)",
+            "  --threads <mode>         platform runs pulls on pooled threads (default), virtual on one virtual",
+            "                           thread each (Java 21+), with --max-concurrency transfers per registry",
+            "  --disk-concurrency <n>   With virtual threads, blob writes in flight per disk (default " + ConcurrencyLimits.DEFAULT_DISK_CONCURRENCY + ")",
+            "  --max-bandwidth <rate>   Cap total download bandwidth, e.g. 50M for 50 MiB/s (native engine)",
+            "  --timeout <time>         Give up on whatever is still pulling after this long, e.g. 10m; images",
+            "                           that are done are kept (in daemon mode, per prefetch)",
+            "  --image-timeout <time>   Give up on a single image after this long, e.g. 5m",
+            "  --disk-budget <size>     After pulling, evict least recently used images and cached layers until",
+            "                           Docker image storage plus the cache fit, e.g. 40G",
+            "  --peer-port <port>       Serve cached blobs to other nodes on this port (native engine)",
+            "  --peers <host:port,...>  Fetch blobs from these peers before ECR (native engine)",
+            "  --peers-file <path>      Read peers from this file, one host:port per line, re-read every 30s",
+            "  --report <path>          Where to write the JSON pull report (default ~/.cache/ecr-image-puller/pull-report.json)",
+            "  --daemon                 Stay resident and prefetch images whenever their tags change",
+            "  --poll-interval <time>   How often the daemon checks ECR, e.g. 90s, 5m (default 5m, jittered)",
+            "  --status-file <path>     Daemon status file (default ~/.cache/ecr-image-puller/daemon-status.json)",
+            "  --status-port <port>     Also serve the daemon status at http://127.0.0.1:<port>/status");
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public Output getOutput() {
+        return output;
+    }
+
+    public Path getOciDirectory() {
+        return ociDirectory;
+    }
+
+    public Path getExportFile() {
+        return exportFile;
+    }
+
+    /**
+     * The bundle to load, {@code -} for stdin, or null when not importing.
+     */
+    public Path getImportFile() {
+        return importFile;
+    }
+
+    public Platform getPlatform() {
+        return platform;
+    }
+
+    /**
+     * Whether to compare the local images with their tags and exit without pulling.
+     */
+    public boolean isCheck() {
+        return check;
+    }
+
+    public boolean isForce() {
+        return force;
+    }
+
+    public boolean isDockerCli() {
+        return dockerCli;
+    }
+
+    public Path getReportFile() {
+        return reportFile;
+    }
+
+    /**
+     * The time limit for a whole run, or null for none.
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * The time limit for each image, or null for none.
+     */
+    public Duration getImageTimeout() {
+        return imageTimeout;
+    }
+
+    /**
+     * The disk budget in bytes, or -1 if none was set.
+     */
+    public long getDiskBudget() {
+        return diskBudget;
+    }
+
+    /**
+     * The port to serve blobs to peers on, or -1 if this node does not serve.
+     */
+    public int getPeerPort() {
+        return peerPort;
+    }
+
+    public List<URI> getPeers() {
+        return peers;
+    }
+
+    public Path getPeersFile() {
+        return peersFile;
+    }
+
+    /**
+     * Whether this node serves blobs to peers or fetches from them.
+     */
+    public boolean isPeerMode() {
+        return peerPort >= 0 || !peers.isEmpty() || peersFile != null;
+    }
+
+    public boolean isDaemon() {
+        return daemon;
+    }
+
+    public Duration getPollInterval() {
+        return pollInterval;
+    }
+
+    public Path getStatusFile() {
+        return statusFile;
+    }
+
+    /**
+     * The status server port, or -1 if none was requested.
+     */
+    public int getStatusPort() {
+        return statusPort;
+    }
+
+    public ConcurrencyLimits getConcurrencyLimits() {
+        return concurrencyLimits;
+    }
+
+    /**
+     * The catalog file from {@code --catalog}, or null for the built-in catalog.
+     */
+    public Path getCatalogFile() {
+        return catalogFile;
+    }
+
+    /**
+     * How long a resolved tag digest is reused; zero disables the tag cache.
+     */
+    public Duration getResolveTtl() {
+        return resolveTtl;
+    }
+
+    public boolean isAll() {
+        return all;
+    }
+
+    public List<String> getImages() {
+        return images;
+    }
+
+    public List<String> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Whether images were selected by name, group or {@code --all}.
+     */
+    public boolean isSelecting() {
+        return all || !images.isEmpty() || !groups.isEmpty();
+    }
+
+    public List<String> getPriorityImages() {
+        return priorityImages;
+    }
+
+    /**
+     * Scheduling priority per image named in {@code --priority}: the first gets the highest.
+     */
+    public Map<String, Integer> getPriorities() {
+        Map<String, Integer> priorities = new LinkedHashMap<>();
+        for (int i = 0; i < priorityImages.size(); i++) {
+            priorities.put(priorityImages.get(i), priorityImages.size() - i);
+        }
+        return priorities;
+    }
+}
@@ -0,0 +1,239 @@
+package com.jit.ecr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The set of resolved images in a run and the unique blobs they need. Images that share base
+ * layers reference the same {@link PlannedBlob}, so every digest is downloaded at most once.
+ */
+public final class PullPlan {
+    private final List<PlannedImage> images = new ArrayList<>();
+    private final Map<String, PlannedBlob> blobs = new LinkedHashMap<>();
+    private final Map<String, String> failures = new LinkedHashMap<>();
+
+    /**
+     * A requested image and the digests it is still waiting for.
+     */
+    public static final class PlannedImage {
+        private final String name;
+        private final ImageReference reference;
+        private final Manifest manifest;
+        private final String tagDigest;
+        private final int priority;
+        private final Set<String> pending = new LinkedHashSet<>();
+
+        public PlannedImage(String name, ImageReference reference, Manifest manifest, String tagDigest) {
+            this(name, reference, manifest, tagDigest, AdaptiveScheduler.DEFAULT_PRIORITY);
+        }
+
+        public PlannedImage(String name, ImageReference reference, Manifest manifest, String tagDigest, int priority) {
+            this.name = name;
+            this.reference = reference;
+            this.manifest = manifest;
+            this.tagDigest = tagDigest;
+            this.priority = priority;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ImageReference getReference() {
+            return reference;
+        }
+
+        public Manifest getManifest() {
+            return manifest;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public synchronized boolean isComplete() {
+            return pending.isEmpty();
+        }
+
+        public PulledImage toPulledImage() {
+            return new PulledImage(name, reference, manifest, tagDigest);
+        }
+    }
+
+    /**
+     * A unique blob and every image that needs it. The first image to reference it is the source
+     * it is fetched from.
+     */
+    public static final class PlannedBlob {
+        private final Descriptor descriptor;
+        private final ImageReference source;
+        private final List<PlannedImage> images = new ArrayList<>();
+
+        PlannedBlob(Descriptor descriptor, ImageReference source) {
+            this.descriptor = descriptor;
+            this.source = source;
+        }
+
+        public Descriptor getDescriptor() {
+            return descriptor;
+        }
+
+        public ImageReference getSource() {
+            return source;
+        }
+
+        public List<PlannedImage> getImages() {
+            return Collections.unmodifiableList(images);
+        }
+
+        /**
+         * The highest priority of the images that need this blob.
+         */
+        public int getPriority() {
+            int priority = Integer.MIN_VALUE;
+            for (PlannedImage image : images) {
+                priority = Math.max(priority, image.priority);
+            }
+            return priority;
+        }
+    }
+
+    public synchronized void addFailure(String name, String message) {
+        failures.put(name, message);
+    }
+
+    /**
+     * Adds a resolved image, registering each blob it needs unless the store already has it.
+     */
+    public synchronized void add(PlannedImage image, BlobStore store) {
+        images.add(image);
+        List<Descriptor> needed = new ArrayList<>();
+        needed.add(image.manifest.getConfig());
+        needed.addAll(image.manifest.getLayers());
+
+        for (Descriptor descriptor : needed) {
+            PlannedBlob blob = blobs.get(descriptor.getDigest());
+            if (blob == null) {
+                blob = new PlannedBlob(descriptor, image.reference);
+                blobs.put(descriptor.getDigest(), blob);
+            }
+            blob.images.add(image);
+            if (!store.contains(descriptor.getDigest())) {
+                synchronized (image) {
+                    image.pending.add(descriptor.getDigest());
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks a blob as present and returns the images that became complete because of it.
+     */
+    public List<PlannedImage> complete(String digest) {
+        PlannedBlob blob;
+        synchronized (this) {
+            blob = blobs.get(digest);
+        }
+        List<PlannedImage> completed = new ArrayList<>();
+        if (blob == null) {
+            return completed;
+        }
+        for (PlannedImage image : blob.images) {
+            synchronized (image) {
+                if (image.pending.remove(digest) && image.pending.isEmpty()) {
+                    completed.add(image);
+                }
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Marks every image needing the blob as failed; those images will not complete.
+     */
+    public void fail(String digest, String message) {
+        PlannedBlob blob;
+        synchronized (this) {
+            blob = blobs.get(digest);
+        }
+        if (blob != null) {
+            for (PlannedImage image : blob.images) {
+                addFailure(image.name, message);
+            }
+        }
+    }
+
+    public synchronized List<PlannedImage> getImages() {
+        return new ArrayList<>(images);
+    }
+
+    /**
+     * Blobs that at least one image is still waiting for.
+     */
+    public synchronized List<PlannedBlob> getMissingBlobs() {
+        List<PlannedBlob> missing = new ArrayList<>();
+        for (PlannedBlob blob : blobs.values()) {
+            for (PlannedImage image : blob.images) {
+                synchronized (image) {
+                    if (image.pending.contains(blob.descriptor.getDigest())) {
+                        missing.add(blob);
+                        break;
+                    }
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Missing blobs in the order they should start: by priority, then largest first. Starting
+     * the longest transfers early keeps one big layer from running alone at the end of the run.
+     */
+    public List<PlannedBlob> getDownloadOrder() {
+        List<PlannedBlob> order = getMissingBlobs();
+        order.sort(Comparator.comparingInt(PlannedBlob::getPriority).reversed()
+            .thenComparing(Comparator.comparingLong((PlannedBlob blob) -> blob.descriptor.getSize()).reversed()));
+        return order;
+    }
+
+    public synchronized Map<String, String> getFailures() {
+        return new LinkedHashMap<>(failures);
+    }
+
+    /**
+     * Bytes the images would transfer if every image were pulled on its own.
+     */
+    public synchronized long getRequestedBytes() {
+        long total = 0;
+        for (PlannedBlob blob : blobs.values()) {
+            total += Math.max(0, blob.descriptor.getSize()) * blob.images.size();
+        }
+        return total;
+    }
+
+    public synchronized long getUniqueBytes() {
+        long total = 0;
+        for (PlannedBlob blob : blobs.values()) {
+            total += Math.max(0, blob.descriptor.getSize());
+        }
+        return total;
+    }
+
+    public long getMissingBytes() {
+        long total = 0;
+        for (PlannedBlob blob : getMissingBlobs()) {
+            total += Math.max(0, blob.descriptor.getSize());
+        }
+        return total;
+    }
+
+    public synchronized int getUniqueBlobCount() {
+        return blobs.size();
+    }
+}
@@ -0,0 +1,44 @@
+package com.jit.ecr;
+
+/**
+ * An image whose manifest, config and layers are all present in the {@link BlobStore}.
+ */
+public final class PulledImage {
+    private final String name;
+    private final ImageReference reference;
+    private final Manifest manifest;
+    private final String tagDigest;
+
+    public PulledImage(String name, ImageReference reference, Manifest manifest, String tagDigest) {
+        this.name = name;
+        this.reference = reference;
+        this.manifest = manifest;
+        this.tagDigest = tagDigest;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ImageReference getReference() {
+        return reference;
+    }
+
+    public Manifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * Digest the tag pointed at when pulled; the index digest for multi-arch images.
+     */
+    public String getTagDigest() {
+        return tagDigest;
+    }
+
+    /**
+     * The image ID Docker assigns on load, which is the config digest.
+     */
+    public String getImageId() {
+        return manifest.getConfig().getDigest();
+    }
+}
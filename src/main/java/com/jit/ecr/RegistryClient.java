@@ -0,0 +1,314 @@
+package com.jit.ecr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Client for the OCI distribution / Docker Registry HTTP API v2.
+ *
+ * <p>A single {@link HttpClient} is shared by all requests so connections (and HTTP/2 streams)
+ * are pooled across manifests and blobs of every image in a run. Hedged blob requests use a
+ * second client, see {@link #openBlobOnSecondConnection}.
+ */
+public class RegistryClient {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(2);
+    private static final int MAX_REDIRECTS = 5;
+
+    private final HttpClient httpClient;
+    private HttpClient hedgeClient;
+    private final URI endpoint;
+    private final String basicAuthorization;
+    private volatile String bearerAuthorization;
+
+    public RegistryClient(String registry, String username, String password) {
+        this(endpointFor(registry), username, password);
+    }
+
+    public RegistryClient(URI endpoint, String username, String password) {
+        this.endpoint = endpoint;
+        this.basicAuthorization = username != null && password != null
+            ? "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8))
+            : null;
+        this.httpClient = newHttpClient();
+    }
+
+    private static HttpClient newHttpClient() {
+        return HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+    }
+
+    /**
+     * Registries on the loopback interface (local stand-ins) are spoken to over plain HTTP.
+     */
+    public static URI endpointFor(String registry) {
+        String host = registry.startsWith("[") ? registry.substring(0, registry.indexOf(']') + 1) : registry.split(":")[0];
+        boolean loopback = host.equals("localhost") || host.equals("127.0.0.1") || host.equals("[::1]");
+        return URI.create((loopback ? "http://" : "https://") + registry);
+    }
+
+    public URI getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * The client {@code registries} returns for the registry of {@code image}. Fails if there is
+     * none, i.e. the run holds no credentials for that registry.
+     */
+    static RegistryClient forImage(Function<ImageReference, RegistryClient> registries, ImageReference image)
+            throws IOException {
+        RegistryClient client = registries.apply(image);
+        if (client == null) {
+            throw new IOException("Not authenticated with registry " + image.getRegistry());
+        }
+        return client;
+    }
+
+    public Manifest fetchManifest(ImageReference image, String reference) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri(image, "manifests", reference))
+            .header("Accept", Manifest.ACCEPT)
+            .timeout(REQUEST_TIMEOUT)
+            .GET();
+        HttpResponse<byte[]> response = send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IOException("Failed to fetch manifest " + image.getRepository() + ":" + reference
+                + " (HTTP " + response.statusCode() + ")");
+        }
+
+        Manifest manifest = Manifest.parse(response.body(), response.headers().firstValue("Content-Type").orElse(null));
+        if (reference.startsWith("sha256:") && !manifest.getDigest().equals(reference)) {
+            throw new IOException("Manifest digest mismatch: expected " + reference + " but received " + manifest.getDigest());
+        }
+        return manifest;
+    }
+
+    /**
+     * Resolves an image to a single-platform manifest, following a multi-arch index if needed.
+     */
+    public Manifest resolveManifest(ImageReference image, Platform platform) throws IOException, InterruptedException {
+        return resolvePlatformManifest(image, fetchManifest(image, image.reference()), platform);
+    }
+
+    /**
+     * Returns {@code manifest} itself, or the entry for {@code platform} if it is an index.
+     */
+    public Manifest resolvePlatformManifest(ImageReference image, Manifest manifest, Platform platform)
+            throws IOException, InterruptedException {
+        if (!manifest.isIndex()) {
+            return manifest;
+        }
+        Descriptor selected = manifest.select(platform);
+        if (selected == null) {
+            throw new IOException("No manifest for platform " + platform + " in " + image);
+        }
+        return fetchManifest(image, selected.getDigest());
+    }
+
+    /**
+     * An open blob body and the byte offset it starts at.
+     */
+    public static final class BlobResponse {
+        private final InputStream body;
+        private final long offset;
+
+        BlobResponse(InputStream body, long offset) {
+            this.body = body;
+            this.offset = offset;
+        }
+
+        public InputStream getBody() {
+            return body;
+        }
+
+        /**
+         * Where the body starts: the requested offset if the range was honoured, otherwise 0.
+         */
+        public long getOffset() {
+            return offset;
+        }
+    }
+
+    public InputStream openBlob(ImageReference image, String digest) throws IOException, InterruptedException {
+        return openBlob(image, digest, 0).getBody();
+    }
+
+    /**
+     * Opens a blob stream starting at {@code offset} using an HTTP Range request. Registries such
+     * as ECR answer with a redirect to pre-signed storage; those are followed by hand so the
+     * registry credentials are never sent to the storage host, while the range is kept.
+     */
+    public BlobResponse openBlob(ImageReference image, String digest, long offset) throws IOException, InterruptedException {
+        return openBlob(httpClient, image, digest, offset);
+    }
+
+    /**
+     * Like {@link #openBlob(ImageReference, String, long)}, but through a separate connection pool,
+     * so a hedged request never shares a (possibly stalled) connection with the transfer it races.
+     */
+    public BlobResponse openBlobOnSecondConnection(ImageReference image, String digest, long offset)
+            throws IOException, InterruptedException {
+        HttpClient client;
+        synchronized (this) {
+            if (hedgeClient == null) {
+                hedgeClient = newHttpClient();
+            }
+            client = hedgeClient;
+        }
+        return openBlob(client, image, digest, offset);
+    }
+
+    private BlobResponse openBlob(HttpClient client, ImageReference image, String digest, long offset)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri(image, "blobs", digest))
+            .timeout(REQUEST_TIMEOUT)
+            .GET();
+        if (offset > 0) {
+            request.header("Range", "bytes=" + offset + "-");
+        }
+        HttpResponse<InputStream> response = send(client, request, HttpResponse.BodyHandlers.ofInputStream());
+
+        int redirects = 0;
+        while (isRedirect(response.statusCode()) && redirects++ < MAX_REDIRECTS) {
+            Optional<String> location = response.headers().firstValue("Location");
+            response.body().close();
+            if (location.isEmpty()) {
+                throw new IOException("Redirect without Location for blob " + digest);
+            }
+            HttpRequest.Builder redirected = HttpRequest.newBuilder(response.uri().resolve(location.get()))
+                .timeout(REQUEST_TIMEOUT)
+                .GET();
+            if (offset > 0) {
+                redirected.header("Range", "bytes=" + offset + "-");
+            }
+            response = client.send(redirected.build(), HttpResponse.BodyHandlers.ofInputStream());
+        }
+
+        if (response.statusCode() == 416 && offset > 0) {
+            // The partial data no longer lines up with the blob; start over
+            response.body().close();
+            return openBlob(client, image, digest, 0);
+        }
+        if (response.statusCode() == 206 && contentRangeStartsAt(response, offset)) {
+            return new BlobResponse(response.body(), offset);
+        }
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException("Failed to fetch blob " + digest + " (HTTP " + response.statusCode() + ")");
+        }
+        return new BlobResponse(response.body(), 0);
+    }
+
+    private static boolean contentRangeStartsAt(HttpResponse<?> response, long offset) {
+        String contentRange = response.headers().firstValue("Content-Range").orElse("");
+        return contentRange.startsWith("bytes " + offset + "-");
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest.Builder request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        return send(httpClient, request, handler);
+    }
+
+    private <T> HttpResponse<T> send(HttpClient client, HttpRequest.Builder request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        String authorization = bearerAuthorization != null ? bearerAuthorization : basicAuthorization;
+        if (authorization != null) {
+            request.setHeader("Authorization", authorization);
+        }
+        HttpResponse<T> response = client.send(request.build(), handler);
+        if (response.statusCode() != 401) {
+            return response;
+        }
+
+        // Registries that use token auth answer 401 with a Bearer challenge; exchange the
+        // credentials for a token once and retry
+        String challenge = response.headers().firstValue("WWW-Authenticate").orElse("");
+        if (!challenge.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return response;
+        }
+        closeQuietly(response);
+        bearerAuthorization = "Bearer " + fetchToken(challenge);
+        request.setHeader("Authorization", bearerAuthorization);
+        return client.send(request.build(), handler);
+    }
+
+    private String fetchToken(String challenge) throws IOException, InterruptedException {
+        Map<String, String> params = parseChallenge(challenge.substring(7));
+        String realm = params.remove("realm");
+        if (realm == null) {
+            throw new IOException("Bearer challenge without realm: " + challenge);
+        }
+        StringBuilder query = new StringBuilder();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            query.append(query.length() == 0 ? '?' : '&')
+                .append(param.getKey()).append('=')
+                .append(URLEncoder.encode(param.getValue(), StandardCharsets.UTF_8));
+        }
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(realm + query)).timeout(REQUEST_TIMEOUT).GET();
+        if (basicAuthorization != null) {
+            request.header("Authorization", basicAuthorization);
+        }
+        HttpResponse<byte[]> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IOException("Token request to " + realm + " failed (HTTP " + response.statusCode() + ")");
+        }
+        Map<String, Object> json = Json.parseObject(response.body());
+        String token = Json.string(json, "token");
+        if (token == null) {
+            token = Json.string(json, "access_token");
+        }
+        if (token == null) {
+            throw new IOException("Token response from " + realm + " contained no token");
+        }
+        return token;
+    }
+
+    private static Map<String, String> parseChallenge(String value) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (String part : value.split(",(?=[a-zA-Z_]+=)")) {
+            int equals = part.indexOf('=');
+            if (equals > 0) {
+                String key = part.substring(0, equals).trim();
+                String param = part.substring(equals + 1).trim();
+                if (param.startsWith("\"") && param.endsWith("\"")) {
+                    param = param.substring(1, param.length() - 1);
+                }
+                params.put(key, param);
+            }
+        }
+        return params;
+    }
+
+    private URI uri(ImageReference image, String kind, String reference) {
+        return endpoint.resolve("/v2/" + image.getRepository() + "/" + kind + "/" + reference);
+    }
+
+    private static boolean isRedirect(int status) {
+        return status == 301 || status == 302 || status == 303 || status == 307 || status == 308;
+    }
+
+    private static void closeQuietly(HttpResponse<?> response) {
+        if (response.body() instanceof InputStream) {
+            try {
+                ((InputStream) response.body()).close();
+            } catch (IOException ignored) {
+                // Nothing useful to do with a failed close of a discarded body
+            }
+        }
+    }
+}
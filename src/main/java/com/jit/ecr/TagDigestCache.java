@@ -0,0 +1,85 @@
+package com.jit.ecr;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the digest each tag resolved to and when, so runs that follow each other within
+ * the TTL skip {@code BatchGetImage} for tags they have just looked up. A tag moved within the
+ * TTL is only noticed once its entry expires; {@code --force} pulls without looking at tags at
+ * all.
+ */
+public class TagDigestCache {
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(1);
+
+    private final Path file;
+    private final Duration ttl;
+    private final Map<String, Object> tags;
+    private boolean changed;
+
+    private TagDigestCache(Path file, Duration ttl, Map<String, Object> tags) {
+        this.file = file;
+        this.ttl = ttl;
+        this.tags = tags;
+    }
+
+    public static TagDigestCache load(Path cacheRoot, Duration ttl) {
+        Path file = cacheRoot.resolve("tags.json");
+        Map<String, Object> tags = new LinkedHashMap<>();
+        if (Files.exists(file)) {
+            try {
+                Map<String, Object> stored = Json.object(Json.parseObject(Files.readAllBytes(file)).get("tags"));
+                if (stored != null) {
+                    tags.putAll(stored);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Ignoring unreadable tag cache " + file + ": " + e.getMessage());
+            }
+        }
+        return new TagDigestCache(file, ttl, tags);
+    }
+
+    /**
+     * The digest {@code imageUri} resolved to within the TTL, or null.
+     */
+    public synchronized String get(String imageUri) {
+        Map<String, Object> entry = Json.object(tags.get(imageUri));
+        long age = System.currentTimeMillis() - Json.number(entry, "resolvedAt", 0);
+        if (entry == null || age < 0 || age >= ttl.toMillis()) {
+            return null;
+        }
+        return Json.string(entry, "digest");
+    }
+
+    public synchronized void put(String imageUri, String digest) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("digest", digest);
+        entry.put("resolvedAt", System.currentTimeMillis());
+        tags.put(imageUri, entry);
+        changed = true;
+    }
+
+    /**
+     * Writes the cache if anything was added, dropping entries that have expired.
+     */
+    public synchronized void save() throws IOException {
+        if (!changed) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        tags.values().removeIf(entry -> now - Json.number(Json.object(entry), "resolvedAt", 0) >= ttl.toMillis());
+        Files.createDirectories(file.getParent());
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("tags", tags);
+        // A unique temp file per save, so two pullers sharing the cache never write into the same one
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        Files.write(temp, Json.writeBytes(json));
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        changed = false;
+    }
+}
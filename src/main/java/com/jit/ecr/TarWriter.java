@@ -0,0 +1,151 @@
+package com.jit.ecr;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming writer for POSIX ustar archives, enough for {@code docker load} and OCI layout bundles.
+ */
+public class TarWriter implements Closeable {
+    private static final int BLOCK_SIZE = 512;
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    private final OutputStream out;
+
+    public TarWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public void addFile(String name, byte[] content) throws IOException {
+        writeHeader(name, content.length, '0');
+        out.write(content);
+        pad(content.length);
+    }
+
+    public void addFile(String name, long size, InputStream content) throws IOException {
+        writeHeader(name, size, '0');
+        byte[] buffer = new byte[64 * 1024];
+        long remaining = size;
+        while (remaining > 0) {
+            int read = content.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                throw new IOException("Unexpected end of content for " + name);
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+        pad(size);
+    }
+
+    /**
+     * Adds a file from disk. When the archive itself goes to a file the bytes are copied by the
+     * kernel without passing through the JVM.
+     */
+    public void addFile(String name, Path source) throws IOException {
+        long size = Files.size(source);
+        if (!(out instanceof FileOutputStream)) {
+            try (InputStream in = Files.newInputStream(source)) {
+                addFile(name, size, in);
+            }
+            return;
+        }
+        writeHeader(name, size, '0');
+        FileChannel target = ((FileOutputStream) out).getChannel();
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, target);
+            }
+        }
+        pad(size);
+    }
+
+    public void addDirectory(String name) throws IOException {
+        writeHeader(name.endsWith("/") ? name : name + "/", 0, '5');
+    }
+
+    private void writeHeader(String name, long size, char type) throws IOException {
+        byte[] header = new byte[BLOCK_SIZE];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 100) {
+            int split = name.lastIndexOf('/', 154);
+            if (split <= 0 || name.length() - split - 1 > 100) {
+                throw new IOException("Tar entry name too long: " + name);
+            }
+            put(header, 345, name.substring(0, split), 155);
+            put(header, 0, name.substring(split + 1), 100);
+        } else {
+            put(header, 0, name, 100);
+        }
+        putOctal(header, 100, type == '5' ? 0755 : 0644, 8);
+        putOctal(header, 108, 0, 8);
+        putOctal(header, 116, 0, 8);
+        if (size <= MAX_OCTAL_SIZE) {
+            putOctal(header, 124, size, 12);
+        } else {
+            // GNU base-256 encoding for entries of 8 GiB and more
+            header[124] = (byte) 0x80;
+            for (int i = 135; i > 124; i--) {
+                header[i] = (byte) (size & 0xff);
+                size >>>= 8;
+            }
+        }
+        putOctal(header, 136, 0, 12);
+        header[156] = (byte) type;
+        put(header, 257, "ustar", 6);
+        put(header, 263, "00", 2);
+
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        putOctal(header, 148, checksum, 7);
+        out.write(header);
+    }
+
+    private void pad(long size) throws IOException {
+        int remainder = (int) (size % BLOCK_SIZE);
+        if (remainder != 0) {
+            out.write(new byte[BLOCK_SIZE - remainder]);
+        }
+    }
+
+    private static void put(byte[] header, int offset, String value, int length) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+    }
+
+    private static void putOctal(byte[] header, int offset, long value, int length) {
+        String octal = Long.toOctalString(value);
+        StringBuilder padded = new StringBuilder();
+        for (int i = octal.length(); i < length - 1; i++) {
+            padded.append('0');
+        }
+        put(header, offset, padded.append(octal).toString(), length - 1);
+    }
+
+    /**
+     * Writes the end-of-archive marker. The underlying stream is flushed but left open.
+     */
+    public void finish() throws IOException {
+        out.write(new byte[BLOCK_SIZE * 2]);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+}
@@ -0,0 +1,155 @@
+package com.jit.ecr;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Watches the throughput of each download connection. A transfer whose rate over the last
+ * {@code window} falls below the minimum is reported as stalled, once, so the caller can hedge
+ * it. A transfer that delivers nothing at all for {@code idleTimeout} is aborted by closing its
+ * stream: the blocked read fails and the download is retried instead of hanging the run.
+ */
+public class TransferMonitor {
+    public static final long DEFAULT_MIN_BYTES_PER_SECOND = 64 * 1024;
+    public static final Duration DEFAULT_WINDOW = Duration.ofSeconds(5);
+    public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofSeconds(30);
+    private static final long CHECK_INTERVAL_MILLIS = 500;
+
+    private static final ScheduledExecutorService CHECKER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "transfer-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long minBytesPerSecond;
+    private final Duration window;
+    private final Duration idleTimeout;
+
+    public TransferMonitor() {
+        this(DEFAULT_MIN_BYTES_PER_SECOND, DEFAULT_WINDOW, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    public TransferMonitor(long minBytesPerSecond, Duration window, Duration idleTimeout) {
+        this.minBytesPerSecond = minBytesPerSecond;
+        this.window = window;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Monitors {@code in} until the returned stream is closed. {@code onStall} may be null; it
+     * runs on the monitor thread and must not block.
+     */
+    public Transfer watch(InputStream in, Consumer<Transfer> onStall) {
+        return new Transfer(in, onStall);
+    }
+
+    /**
+     * A monitored download stream.
+     */
+    public final class Transfer extends FilterInputStream {
+        private final Consumer<Transfer> onStall;
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final Deque<long[]> samples = new ArrayDeque<>();
+        private final ScheduledFuture<?> check;
+        private long lastProgressNanos = System.nanoTime();
+        private long lastBytes;
+        private boolean stalled;
+        private volatile String abortReason;
+
+        private Transfer(InputStream in, Consumer<Transfer> onStall) {
+            super(in);
+            this.onStall = onStall;
+            samples.add(new long[] {System.nanoTime(), 0});
+            this.check = CHECKER.scheduleAtFixedRate(this::check, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+        }
+
+        public long getBytesRead() {
+            return bytesRead.get();
+        }
+
+        public boolean isAborted() {
+            return abortReason != null;
+        }
+
+        /**
+         * Makes a blocked or future read fail, e.g. because a hedge already has the data.
+         */
+        public void abort(String reason) {
+            abortReason = reason;
+            check.cancel(false);
+            try {
+                in.close();
+            } catch (IOException e) {
+                // The reader sees the abort either way
+            }
+        }
+
+        private void check() {
+            long now = System.nanoTime();
+            long bytes = bytesRead.get();
+            if (bytes != lastBytes) {
+                lastBytes = bytes;
+                lastProgressNanos = now;
+            } else if (now - lastProgressNanos >= idleTimeout.toNanos()) {
+                abort("no data for " + idleTimeout.getSeconds() + "s");
+                return;
+            }
+
+            samples.add(new long[] {now, bytes});
+            while (samples.size() > 1 && now - samples.peekFirst()[0] > window.toNanos()) {
+                samples.removeFirst();
+            }
+            long[] oldest = samples.peekFirst();
+            long span = now - oldest[0];
+            // Judge only a full window, so slow starts and short blobs are not flagged
+            boolean fullWindow = span >= window.toNanos() - TimeUnit.MILLISECONDS.toNanos(CHECK_INTERVAL_MILLIS);
+            if (!stalled && onStall != null && fullWindow && (bytes - oldest[1]) * 1e9 / span < minBytesPerSecond) {
+                stalled = true;
+                onStall.accept(this);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read;
+            try {
+                read = super.read(buffer, offset, length);
+            } catch (IOException e) {
+                if (abortReason != null) {
+                    throw new IOException("Transfer aborted after " + bytesRead.get() + " bytes: " + abortReason, e);
+                }
+                throw e;
+            }
+            if (read == -1 && abortReason != null) {
+                throw new IOException("Transfer aborted after " + bytesRead.get() + " bytes: " + abortReason);
+            }
+            if (read > 0) {
+                bytesRead.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            check.cancel(false);
+            super.close();
+        }
+    }
+}
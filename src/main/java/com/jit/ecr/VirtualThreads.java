@@ -0,0 +1,49 @@
+package com.jit.ecr;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual threads need Java 21+ (or 19 and 20 with {@code --enable-preview}). The project targets
+ * Java 11, so the executor factory is looked up reflectively and tried once; where it is missing or
+ * fails {@link #isSupported()} is false and callers stay on platform threads.
+ */
+public final class VirtualThreads {
+    private static final Method NEW_PER_TASK_EXECUTOR;
+
+    static {
+        Method perTask = null;
+        try {
+            perTask = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            // On Java 19 and 20 the method is a preview API and throws without --enable-preview
+            ((ExecutorService) perTask.invoke(null)).shutdown();
+        } catch (ReflectiveOperationException e) {
+            // Pre-21 runtime: no virtual threads
+            perTask = null;
+        }
+        NEW_PER_TASK_EXECUTOR = perTask;
+    }
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return NEW_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * An executor that starts a new virtual thread for every task.
+     */
+    public static ExecutorService newPerTaskExecutor() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or newer");
+        }
+        try {
+            return (ExecutorService) NEW_PER_TASK_EXECUTOR.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Could not create a virtual thread executor", e);
+        }
+    }
+}